@@ -0,0 +1,20 @@
+package main.com.pyratron.pugmatt.bedrockconnect.benchmarks;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs the benchmarks like JMH's own main, always with the GC profiler so bytes allocated per operation
+ * are reported next to the throughput. Takes the usual JMH arguments, e.g. a benchmark name pattern.
+ */
+public class Benchmarks {
+
+    public static void main(String[] args) throws Exception {
+        new Runner(new OptionsBuilder()
+                .parent(new CommandLineOptions(args))
+                .addProfiler(GCProfiler.class)
+                .build()).run();
+    }
+}
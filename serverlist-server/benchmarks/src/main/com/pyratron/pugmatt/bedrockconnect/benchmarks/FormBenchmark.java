@@ -0,0 +1,76 @@
+package main.com.pyratron.pugmatt.bedrockconnect.benchmarks;
+
+import main.com.pyratron.pugmatt.bedrockconnect.gui.FormResponse;
+import main.com.pyratron.pugmatt.bedrockconnect.gui.UIComponents;
+import main.com.pyratron.pugmatt.bedrockconnect.gui.UIForms;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Forms sent to every player and the parsing of what comes back, by the size of the player's server list
+ * (up to the default server limit of 100).
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class FormBenchmark {
+
+    @Param({"0", "10", "50", "100"})
+    public int servers;
+
+    private List<String> serverList;
+    // The server list as it is stored
+    private String serverData;
+    // A filled in direct connect form, as the client sends it
+    private String directConnectResponse;
+
+    @Setup
+    public void setup() {
+        serverList = new ArrayList<>();
+        for (int i = 0; i < servers; i++)
+            serverList.add("play" + i + ".example.net:19132");
+        serverData = UIComponents.serversToFormData(serverList);
+        directConnectResponse = "[\"play.example.net\",\"19132\",true]\n";
+    }
+
+    @Benchmark
+    public String createMain() {
+        return UIForms.createMain(serverList).getFormData();
+    }
+
+    @Benchmark
+    public String createRemoveServer() {
+        return UIForms.createRemoveServer(serverList).getFormData();
+    }
+
+    @Benchmark
+    public String serversToFormData() {
+        return UIComponents.serversToFormData(serverList);
+    }
+
+    @Benchmark
+    public List<String> getFormDataServers() {
+        return UIComponents.getFormData(serverData);
+    }
+
+    @Benchmark
+    public List<String> getFormDataDirectConnect() {
+        return UIComponents.getFormData(directConnectResponse);
+    }
+
+    @Benchmark
+    public FormResponse parseDirectConnect() {
+        return FormResponse.parse(directConnectResponse);
+    }
+
+    @Benchmark
+    public FormResponse parseButton() {
+        return FormResponse.parse("3\n");
+    }
+}
@@ -0,0 +1,53 @@
+package main.com.pyratron.pugmatt.bedrockconnect.benchmarks;
+
+import io.netty.buffer.ByteBuf;
+import main.com.pyratron.pugmatt.bedrockconnect.BCPlayer;
+import main.com.pyratron.pugmatt.bedrockconnect.utils.AssetBundle;
+import main.com.pyratron.pugmatt.bedrockconnect.utils.BedrockProtocol;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Loading the tables of a protocol version and encoding and compressing the join sequence from them, which the
+ * server does once per protocol version and falls back to packet by packet if that fails.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class JoinGameBenchmark {
+
+    @Param({"419", "422", "428", "431", "440"})
+    public int protocol;
+
+    private AssetBundle assets;
+
+    @Setup
+    public void setup() {
+        if (BedrockProtocol.getBedrockCodec(protocol) == null)
+            throw new IllegalArgumentException("Unsupported protocol " + protocol);
+        assets = AssetBundle.load(protocol);
+    }
+
+    @Benchmark
+    public AssetBundle loadAssets() {
+        return AssetBundle.load(protocol);
+    }
+
+    /**
+     * @return Compressed size, so the work is not optimized away
+     */
+    @Benchmark
+    public int encodeJoinSequence() {
+        // The codec is looked up every time as its type is relocated in the server jar; it is a scan of five entries
+        ByteBuf batch = BCPlayer.encodeJoinSequence(BedrockProtocol.getBedrockCodec(protocol), assets, null);
+        try {
+            return batch.readableBytes();
+        } finally {
+            batch.release();
+        }
+    }
+}
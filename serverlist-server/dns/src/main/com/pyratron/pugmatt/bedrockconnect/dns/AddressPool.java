@@ -0,0 +1,216 @@
+package main.com.pyratron.pugmatt.bedrockconnect.dns;
+
+import org.xbill.DNS.*;
+import org.xbill.DNS.Record;
+
+import java.io.IOException;
+import java.net.Inet4Address;
+import java.net.InetSocketAddress;
+import java.net.UnknownHostException;
+import java.util.*;
+
+/**
+ * A pool of server addresses a local name resolves to.
+ *
+ * Answers list the healthy addresses in smooth weighted round-robin order, so clients
+ * taking the first address are spread over the servers. Each server's weight is its configured
+ * weight scaled by its free player slots, both learned from a RakNet unconnected ping.
+ * Servers missing {@link #FAILURES_TO_DROP} pings in a row are left out of answers until they answer again.
+ * If no server is healthy, all of them are returned.
+ */
+public class AddressPool {
+    /**
+     * TTL of answers from a pool of several servers, kept short so clients follow health changes.
+     */
+    public static final int TTL = 10;
+    /**
+     * TTL of answers from a pool of one server, which is not health checked: that of any other local entry.
+     */
+    public static final int SINGLE_TTL = 86400;
+    /**
+     * Interval between health checks, in milliseconds.
+     */
+    public static final int CHECK_INTERVAL = 2000;
+    private static final int CHECK_TIMEOUT = 1000;
+    private static final int FAILURES_TO_DROP = 2;
+    /**
+     * Weight of a full server, relative to an empty one.
+     */
+    private static final double MIN_LOAD_FACTOR = 0.1;
+
+    /**
+     * One server of a pool.
+     */
+    public static class Target {
+        public final InetSocketAddress address;
+        public final int weight;
+        private volatile boolean healthy = true;
+        private volatile double load = 0;
+        private int failures = 0;
+        private int current = 0;
+
+        Target(InetSocketAddress address, int weight) {
+            this.address = address;
+            this.weight = weight;
+        }
+
+        public boolean isHealthy() {
+            return healthy;
+        }
+
+        public double getLoad() {
+            return load;
+        }
+
+        private int effectiveWeight() {
+            return (int) Math.max(1, Math.round(weight * 100 * Math.max(MIN_LOAD_FACTOR, 1 - load)));
+        }
+    }
+
+    private final List<Target> targets = new ArrayList<>();
+
+    /**
+     * Add a server to the pool.
+     * @param address The server's address. Its port is used for health checks.
+     * @param weight Share of the clients the server gets when all servers are equally loaded.
+     */
+    public void add(InetSocketAddress address, int weight) {
+        if(weight <= 0) throw new IllegalArgumentException("Weight must be positive: " + weight);
+        targets.add(new Target(address, weight));
+    }
+
+    public List<Target> getTargets() {
+        return Collections.unmodifiableList(targets);
+    }
+
+    public int size() {
+        return targets.size();
+    }
+
+    /**
+     * Records of all servers of the pool, regardless of health. Used as the zone content.
+     * @param name Owner name of the records.
+     * @param type Type.A or Type.AAAA
+     * @return The records.
+     */
+    public List<Record> getRecords(Name name, int type) {
+        List<Record> records = new ArrayList<>();
+        for(Target t : targets) {
+            Record r = toRecord(name, type, t);
+            if(r != null) records.add(r);
+        }
+        return records;
+    }
+
+    /**
+     * Answer a query for the pool: healthy servers of the requested family, the next one in
+     * weighted round-robin order first.
+     * @param name Owner name of the records.
+     * @param type Type.A or Type.AAAA
+     * @return The records, possibly empty if the pool has no address of that family.
+     */
+    public List<Record> answer(Name name, int type) {
+        List<Target> candidates = new ArrayList<>();
+        for(Target t : targets) {
+            if(t.healthy && matches(t, type)) candidates.add(t);
+        }
+        if(candidates.isEmpty()) {
+            for(Target t : targets) {
+                if(matches(t, type)) candidates.add(t);
+            }
+        }
+        if(candidates.isEmpty()) return Collections.emptyList();
+
+        int first = next(candidates);
+        List<Record> records = new ArrayList<>(candidates.size());
+        for(int i = 0; i < candidates.size(); i++) {
+            records.add(toRecord(name, type, candidates.get((first + i) % candidates.size())));
+        }
+        return records;
+    }
+
+    /**
+     * Smooth weighted round-robin: every candidate gains its weight, the highest is picked and loses the total.
+     * @return Index of the picked candidate.
+     */
+    private synchronized int next(List<Target> candidates) {
+        int total = 0;
+        int best = 0;
+        for(int i = 0; i < candidates.size(); i++) {
+            Target t = candidates.get(i);
+            int w = t.effectiveWeight();
+            t.current += w;
+            total += w;
+            if(t.current > candidates.get(best).current) best = i;
+        }
+        candidates.get(best).current -= total;
+        return best;
+    }
+
+    /**
+     * Ping every server of the pool once and update its health and load.
+     */
+    public void check() {
+        List<InetSocketAddress> addresses = new ArrayList<>();
+        for(Target t : targets) addresses.add(t.address);
+        Map<InetSocketAddress, RakNetPing.Pong> pongs;
+        try {
+            pongs = RakNetPing.pingAll(addresses, CHECK_TIMEOUT);
+        } catch (IOException e) {
+            System.out.println("Unable to check DNS pool health: " + e.getMessage());
+            return;
+        }
+
+        for(Target t : targets) {
+            RakNetPing.Pong pong = pongs.get(t.address);
+            boolean wasHealthy = t.healthy;
+            if(pong != null) {
+                t.failures = 0;
+                t.load = pong.getLoad();
+                t.healthy = true;
+            } else {
+                t.failures++;
+                t.healthy = t.failures < FAILURES_TO_DROP;
+            }
+            if(wasHealthy != t.healthy) {
+                System.out.printf("DNS pool target %s is %s%n", t.address, t.healthy ? "up" : "down");
+            }
+        }
+    }
+
+    private static boolean matches(Target t, int type) {
+        return (t.address.getAddress() instanceof Inet4Address) == (type == Type.A);
+    }
+
+    private Record toRecord(Name name, int type, Target t) {
+        if(type != Type.A && type != Type.AAAA || !matches(t, type)) return null;
+        int ttl = targets.size() > 1 ? TTL : SINGLE_TTL;
+        return type == Type.A
+            ? new ARecord(name, DClass.IN, ttl, t.address.getAddress())
+            : new AAAARecord(name, DClass.IN, ttl, t.address.getAddress());
+    }
+
+    /**
+     * Parse a comma separated list of servers.
+     * @param spec Entries in the form <code>host[:port][@weight]</code>, e.g. 10.0.0.1,10.0.0.2:19133@2
+     * @param defaultPort The port used by entries without one.
+     * @return The pool.
+     * @throws UnknownHostException When a host cannot be resolved.
+     */
+    public static AddressPool parse(String spec, int defaultPort) throws UnknownHostException {
+        AddressPool pool = new AddressPool();
+        for(String entry : spec.split(",")) {
+            entry = entry.trim();
+            if(entry.isEmpty()) continue;
+            int weight = 1;
+            int at = entry.indexOf('@');
+            if(at >= 0) {
+                weight = Integer.parseInt(entry.substring(at + 1).trim());
+                entry = entry.substring(0, at);
+            }
+            pool.add(DNSResolver.parseAddresses(entry, defaultPort).get(0), weight);
+        }
+        if(pool.size() == 0) throw new IllegalArgumentException("No address in " + spec);
+        return pool;
+    }
+}
@@ -0,0 +1,219 @@
+package main.com.pyratron.pugmatt.bedrockconnect.dns;
+
+import org.xbill.DNS.Name;
+
+import java.io.*;
+import java.net.IDN;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * An immutable set of blocked domains, compact enough for lists of millions of entries.
+ *
+ * A domain list is compiled once into a sorted table of 63-bit fingerprints of the domains in wire format,
+ * with an index of 2^16 buckets over the top bits. The compiled file is memory-mapped, so the list
+ * lives outside the heap and costs 8 bytes per domain. Lookups hash the name straight from the
+ * request bytes and search one bucket, without allocating.
+ *
+ * A listed domain also blocks all of its subdomains.
+ */
+public class Blocklist {
+    private static final int MAGIC = 0x4243424C; // "BCBL"
+    private static final int VERSION = 1;
+    private static final int BUCKET_BITS = 16;
+    static final int BUCKETS = 1 << BUCKET_BITS;
+    private static final int HEADER_SIZE = 12;
+    private static final int INDEX_SIZE = (BUCKETS + 1) * 4;
+
+    private final ByteBuffer table;
+    private final int count;
+
+    private Blocklist(ByteBuffer table) throws IOException {
+        if(table.getInt(0) != MAGIC || table.getInt(4) != VERSION) throw new IOException("Not a compiled blocklist");
+        this.table = table;
+        this.count = table.getInt(8);
+        if(table.capacity() != HEADER_SIZE + INDEX_SIZE + count * 8L) throw new IOException("Truncated blocklist");
+    }
+
+    /**
+     * Load a domain list. The list is compiled to <code>file.bcbl</code> next to it, unless
+     * an up to date compiled copy already exists, and the compiled copy is memory-mapped.
+     * @param file A domain list, one domain per line, or a hosts file. Lines starting with # are ignored.
+     * @return The blocklist.
+     * @throws IOException When the list cannot be read or compiled.
+     */
+    public static Blocklist load(File file) throws IOException {
+        File compiled = new File(file.getPath() + ".bcbl");
+        if(!compiled.exists() || compiled.lastModified() < file.lastModified()) {
+            compile(file, compiled);
+        }
+        try (FileChannel channel = FileChannel.open(compiled.toPath(), StandardOpenOption.READ)) {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            return new Blocklist(buffer);
+        }
+    }
+
+    /**
+     * Compile a domain list into the memory-mappable format.
+     * @param source The domain list.
+     * @param target The compiled file to write.
+     * @throws IOException When the list cannot be read or the compiled file written.
+     */
+    public static void compile(File source, File target) throws IOException {
+        long[] hashes = new long[1024];
+        int n = 0;
+        byte[] wire = new byte[256];
+        try (BufferedReader reader = Files.newBufferedReader(source.toPath(), StandardCharsets.UTF_8)) {
+            String line;
+            while((line = reader.readLine()) != null) {
+                String domain = parseLine(line);
+                if(domain == null) continue;
+                int length = toWire(domain, wire);
+                if(length <= 1) continue;
+                if(n == hashes.length) hashes = Arrays.copyOf(hashes, n * 2);
+                hashes[n++] = hash(wire, 0, length);
+            }
+        }
+
+        Arrays.sort(hashes, 0, n);
+        int unique = 0;
+        for(int i = 0; i < n; i++) {
+            if(unique == 0 || hashes[unique - 1] != hashes[i]) hashes[unique++] = hashes[i];
+        }
+
+        int[] index = new int[BUCKETS + 1];
+        for(int i = 0; i < unique; i++) index[bucket(hashes[i]) + 1]++;
+        for(int b = 0; b < BUCKETS; b++) index[b + 1] += index[b];
+
+        File tmp = new File(target.getPath() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp), 1 << 16))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(unique);
+            for(int offset : index) out.writeInt(offset);
+            for(int i = 0; i < unique; i++) out.writeLong(hashes[i]);
+        }
+        if(target.exists() && !target.delete()) throw new IOException("Unable to replace " + target);
+        if(!tmp.renameTo(target)) throw new IOException("Unable to write " + target);
+        System.out.printf("Compiled blocklist %s: %d domains%n", source, unique);
+    }
+
+    /**
+     * @return Number of distinct domains in the list.
+     */
+    public int size() {
+        return count;
+    }
+
+    /**
+     * Check a name in wire format, e.g. the question of a raw request.
+     * The name and each of its parent domains are looked up.
+     * @param wire Buffer holding the name.
+     * @param offset Start of the name. The name must not be compressed.
+     * @return Whether the name is blocked.
+     */
+    public boolean contains(byte[] wire, int offset) {
+        int end = offset;
+        while(end < wire.length && wire[end] != 0) end += (wire[end] & 0xFF) + 1;
+        if(end >= wire.length) return false;
+        for(int pos = offset; pos < end; pos += (wire[pos] & 0xFF) + 1) {
+            if(lookup(hash(wire, pos, end + 1 - pos))) return true;
+        }
+        return false;
+    }
+
+    /**
+     * Check a name.
+     * @param name The name.
+     * @return Whether the name or one of its parent domains is blocked.
+     */
+    public boolean contains(Name name) {
+        return contains(name.toWireCanonical(), 0);
+    }
+
+    private boolean lookup(long hash) {
+        int b = bucket(hash);
+        int lo = table.getInt(HEADER_SIZE + b * 4);
+        int hi = table.getInt(HEADER_SIZE + (b + 1) * 4) - 1;
+        int base = HEADER_SIZE + INDEX_SIZE;
+        while(lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            long value = table.getLong(base + mid * 8);
+            if(value < hash) lo = mid + 1;
+            else if(value > hash) hi = mid - 1;
+            else return true;
+        }
+        return false;
+    }
+
+    static int bucket(long hash) {
+        return (int) (hash >>> (63 - BUCKET_BITS));
+    }
+
+    /**
+     * FNV-1a over the lowercased bytes, finalized with the MurmurHash3 mixer, truncated to 63 bits
+     * so that signed order matches bucket order.
+     */
+    static long hash(byte[] data, int offset, int length) {
+        long h = 0xcbf29ce484222325L;
+        for(int i = offset; i < offset + length; i++) {
+            int b = data[i] & 0xFF;
+            if(b >= 'A' && b <= 'Z') b += 'a' - 'A';
+            h ^= b;
+            h *= 0x100000001b3L;
+        }
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h & Long.MAX_VALUE;
+    }
+
+    /**
+     * Extract the domain of a domain list or hosts file line.
+     * @return The domain, or null if the line has none.
+     */
+    static String parseLine(String line) {
+        int comment = line.indexOf('#');
+        if(comment >= 0) line = line.substring(0, comment);
+        String[] fields = line.trim().split("\\s+");
+        if(fields.length == 0 || fields[0].isEmpty()) return null;
+        String domain = fields.length > 1 ? fields[1] : fields[0]; // hosts file: address, then name
+        if(domain.equals("localhost") || domain.equals("0.0.0.0")) return null;
+        return domain;
+    }
+
+    /**
+     * Convert a textual domain to lowercase wire format. Internationalized domains are converted to
+     * punycode, the form they are queried in.
+     * @return The length written, or 0 if the domain is not valid.
+     */
+    static int toWire(String domain, byte[] out) {
+        try {
+            domain = IDN.toASCII(domain);
+        } catch (IllegalArgumentException e) {
+            return 0;
+        }
+        if(domain.endsWith(".")) domain = domain.substring(0, domain.length() - 1);
+        if(domain.isEmpty() || domain.length() > 253) return 0;
+        int pos = 0;
+        for(String label : domain.split("\\.")) {
+            if(label.isEmpty() || label.length() > 63) return 0;
+            out[pos++] = (byte) label.length();
+            for(int i = 0; i < label.length(); i++) {
+                char c = label.charAt(i);
+                if(c > 0x7F) return 0;
+                if(c >= 'A' && c <= 'Z') c += 'a' - 'A';
+                out[pos++] = (byte) c;
+            }
+        }
+        out[pos++] = 0;
+        return pos;
+    }
+}
@@ -0,0 +1,108 @@
+package main.com.pyratron.pugmatt.bedrockconnect.dns;
+
+import org.xbill.DNS.Record;
+import org.xbill.DNS.Section;
+
+import java.util.List;
+import java.util.function.LongSupplier;
+
+/**
+ * A cached answer section, stored in uncompressed wire format, with TTL in mind.
+ *
+ * The records are encoded once when cached. On a hit the bytes are copied into the response
+ * and the TTL fields are rewritten in place with the remaining lifetime, so no records are re-encoded.
+ */
+public class CachedAnswer {
+    /**
+     * How long an empty answer is cached, in seconds.
+     */
+    private static final long NEGATIVE_TTL = 30;
+
+    private final byte[] wire;
+    private final int count;
+    private final int[] ttlOffsets;
+    private final long[] ttls;
+    private final long cachedAt;
+    private final long expireAt;
+    private final LongSupplier clock;
+
+    /**
+     * Construct a cached answer from the records of an answer section.
+     * The answer expires with the record having the lowest TTL.
+     * @param records The answer records.
+     */
+    CachedAnswer(List<Record> records) {
+        this(records, System::nanoTime);
+    }
+
+    /**
+     * @param clock Source of the current time in nanoseconds, e.g. {@link System#nanoTime()}.
+     */
+    CachedAnswer(List<Record> records, LongSupplier clock) {
+        this.clock = clock;
+        this.count = records.size();
+        this.ttlOffsets = new int[count];
+        this.ttls = new long[count];
+
+        byte[][] encoded = new byte[count][];
+        int length = 0;
+        long minTtl = count == 0 ? NEGATIVE_TTL : Long.MAX_VALUE;
+        for(int i = 0; i < count; i++) {
+            Record r = records.get(i);
+            encoded[i] = r.toWire(Section.ANSWER); // Not compressed, so it can be copied behind any header.
+            // Owner name, then TYPE and CLASS, then TTL.
+            ttlOffsets[i] = length + r.getName().length() + 4;
+            ttls[i] = r.getTTL();
+            minTtl = Math.min(minTtl, r.getTTL());
+            length += encoded[i].length;
+        }
+
+        this.wire = new byte[length];
+        int offset = 0;
+        for(byte[] rec : encoded) {
+            System.arraycopy(rec, 0, wire, offset, rec.length);
+            offset += rec.length;
+        }
+
+        this.cachedAt = clock.getAsLong();
+        this.expireAt = cachedAt + minTtl * 1_000_000_000L;
+    }
+
+    public boolean expired() {
+        return clock.getAsLong() - expireAt > 0;
+    }
+
+    /**
+     * @return Number of records in the answer.
+     */
+    public int getCount() {
+        return count;
+    }
+
+    /**
+     * @return Length of the answer section in bytes.
+     */
+    public int getLength() {
+        return wire.length;
+    }
+
+    /**
+     * Copy the answer section into a response, with TTLs decreased by the time spent in cache.
+     * @param out The response buffer.
+     * @param offset Where the answer section starts in <code>out</code>.
+     * @return The offset right after the answer section.
+     */
+    public int writeTo(byte[] out, int offset) {
+        System.arraycopy(wire, 0, out, offset, wire.length);
+        long elapsed = (clock.getAsLong() - cachedAt) / 1_000_000_000L;
+        for(int i = 0; i < count; i++) {
+            long ttl = Math.max(0, ttls[i] - elapsed);
+            int pos = offset + ttlOffsets[i];
+            out[pos] = (byte) (ttl >>> 24);
+            out[pos + 1] = (byte) (ttl >>> 16);
+            out[pos + 2] = (byte) (ttl >>> 8);
+            out[pos + 3] = (byte) ttl;
+        }
+        return offset + wire.length;
+    }
+}
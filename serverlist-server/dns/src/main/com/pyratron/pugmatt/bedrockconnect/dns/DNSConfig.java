@@ -0,0 +1,281 @@
+package main.com.pyratron.pugmatt.bedrockconnect.dns;
+
+import org.xbill.DNS.Type;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Settings of the DNS server, read from <code>BC_DNS_*</code> environment variables, then from the
+ * optional <code>dns-config</code> file, then from <code>dns-*</code> arguments, each overriding the previous.
+ * Shared by the serverlist server and the standalone {@link DNSDaemon}.
+ *
+ * The config file holds the same settings as the arguments, one per line, e.g. <code>dns-ip=1.2.3.4</code>.
+ * It is read again on reload, so the DNS server can be reconfigured without a restart.
+ */
+public class DNSConfig {
+    /**
+     * Interval between checks of the config file for changes, in milliseconds.
+     */
+    private static final int WATCH_INTERVAL = 5000;
+
+    private List<String> args = Arrays.asList();
+    public String configFile = null;
+    public boolean enabled = false;
+    public int port = 53;
+    public String ip = "104.238.130.180";
+    public int cacheSize = 1000;
+    public boolean recursive = false;
+    public boolean iterative = false;
+    public String rootHints = null;
+    public int nsPort = 53;
+    public String primary = null;
+    public String zones = null;
+    public String notify = null;
+    public String allowTransfer = null;
+    public String blocklist = null;
+    public boolean blockWithNullAddress = false;
+    public int receiveBufferSize = 0;
+    public int sendBufferSize = 0;
+    public boolean emptyZones = true;
+
+    /**
+     * @return The settings given by environment variables, or the defaults.
+     */
+    public static DNSConfig fromEnvironment() {
+        DNSConfig config = new DNSConfig();
+        config.enabled = System.getenv("BC_DNS_ON") != null && System.getenv("BC_DNS_ON").toLowerCase().equals("true");
+        if(System.getenv("BC_DNS_PORT") != null)
+            config.port = Integer.parseInt(System.getenv("BC_DNS_PORT"));
+        if(System.getenv("BC_DNS_IP") != null)
+            config.ip = System.getenv("BC_DNS_IP");
+        if(System.getenv("BC_DNS_CACHE") != null)
+            config.cacheSize = Integer.parseInt(System.getenv("BC_DNS_CACHE"));
+        config.recursive =
+            System.getenv("BC_DNS_RECURSE") != null && System.getenv("BC_DNS_RECURSE").toLowerCase().equals("true");
+        config.iterative =
+            System.getenv("BC_DNS_ITERATIVE") != null && System.getenv("BC_DNS_ITERATIVE").toLowerCase().equals("true");
+        config.rootHints = System.getenv("BC_DNS_ROOT_HINTS");
+        if(System.getenv("BC_DNS_NS_PORT") != null)
+            config.nsPort = Integer.parseInt(System.getenv("BC_DNS_NS_PORT"));
+        config.primary = System.getenv("BC_DNS_PRIMARY");
+        config.zones = System.getenv("BC_DNS_ZONES");
+        config.notify = System.getenv("BC_DNS_NOTIFY");
+        config.allowTransfer = System.getenv("BC_DNS_ALLOW_TRANSFER");
+        config.blocklist = System.getenv("BC_DNS_BLOCKLIST");
+        config.blockWithNullAddress =
+            System.getenv("BC_DNS_BLOCKLIST_MODE") != null && System.getenv("BC_DNS_BLOCKLIST_MODE").toLowerCase().equals("null");
+        if(System.getenv("BC_DNS_RCVBUF") != null)
+            config.receiveBufferSize = Integer.parseInt(System.getenv("BC_DNS_RCVBUF"));
+        if(System.getenv("BC_DNS_SNDBUF") != null)
+            config.sendBufferSize = Integer.parseInt(System.getenv("BC_DNS_SNDBUF"));
+        config.emptyZones =
+            System.getenv("BC_DNS_EMPTY_ZONES") == null || System.getenv("BC_DNS_EMPTY_ZONES").toLowerCase().equals("true");
+        config.configFile = System.getenv("BC_DNS_CONFIG");
+        return config;
+    }
+
+    /**
+     * Read the settings from the environment, the config file and the arguments.
+     * @param args Command line arguments. Arguments that are not DNS settings are ignored.
+     * @return The settings.
+     * @throws IOException When the config file cannot be read.
+     */
+    public static DNSConfig load(String[] args) throws IOException {
+        DNSConfig config = fromEnvironment();
+        config.args = Arrays.asList(args);
+        for(String str : args) config.parseArg(str);
+        if(config.configFile != null) {
+            // Arguments override the file.
+            config.readFile(new File(config.configFile));
+            for(String str : args) config.parseArg(str);
+        }
+        return config;
+    }
+
+    private void readFile(File file) throws IOException {
+        try (BufferedReader reader = Files.newBufferedReader(file.toPath(), StandardCharsets.UTF_8)) {
+            String line;
+            while((line = reader.readLine()) != null) {
+                line = line.trim();
+                if(line.isEmpty() || line.startsWith("#")) continue;
+                if(line.startsWith("dns-config=") || !parseArg(line))
+                    System.out.println("Unknown DNS setting in " + file + ": " + line);
+            }
+        }
+    }
+
+    /**
+     * Read the settings again and apply them to a running DNS server without closing its sockets.
+     * The new state is built in the calling thread while the server keeps answering from the old one.
+     * @param running The running DNS server.
+     * @param serverPort Port of the BedrockConnect servers in <code>ip</code> that do not specify one.
+     * @return The new settings.
+     * @throws IOException When the settings cannot be read or applied.
+     */
+    public DNSConfig reload(DNSResolver running, int serverPort) throws IOException {
+        DNSConfig next = load(args.toArray(new String[0]));
+        running.reload(next.createResolver(serverPort));
+        return next;
+    }
+
+    /**
+     * Reload the settings into a running DNS server whenever the config file changes.
+     * Does nothing without a config file.
+     * @param running The running DNS server.
+     * @param serverPort Port of the BedrockConnect servers in <code>ip</code> that do not specify one.
+     */
+    public void watch(DNSResolver running, int serverPort) {
+        if(configFile == null) return;
+        File file = new File(configFile);
+        Thread watcher = new Thread(() -> {
+            long lastModified = file.lastModified();
+            while(true) {
+                try {
+                    Thread.sleep(WATCH_INTERVAL);
+                } catch (InterruptedException e) {
+                    return;
+                }
+                long modified = file.lastModified();
+                if(modified == lastModified) continue;
+                lastModified = modified;
+                try {
+                    reload(running, serverPort);
+                } catch (Exception e) {
+                    System.out.println("Unable to reload DNS configuration, keeping the current one: " + e.getMessage());
+                }
+            }
+        }, "DNS Config Watcher");
+        watcher.setDaemon(true);
+        watcher.start();
+    }
+
+    /**
+     * Apply an argument, if it is a DNS setting.
+     * @param str The argument, e.g. dns-ip=1.2.3.4
+     * @return Whether the argument was a DNS setting.
+     */
+    public boolean parseArg(String str) {
+        if(str.startsWith("dns-on="))
+            enabled = getArgValue(str, "dns-on").toLowerCase().equals("true");
+        else if(str.startsWith("dns-config="))
+            configFile = getArgValue(str, "dns-config");
+        else if(str.startsWith("dns-port="))
+            port = Integer.parseInt(getArgValue(str, "dns-port"));
+        else if(str.startsWith("dns-ip="))
+            ip = getArgValue(str, "dns-ip");
+        else if(str.startsWith("dns-recursive"))
+            recursive = getArgValue(str, "dns-recursive").toLowerCase().equals("true");
+        else if(str.startsWith("dns-cache"))
+            cacheSize = Integer.parseInt(getArgValue(str, "dns-cache"));
+        else if(str.startsWith("dns-iterative="))
+            iterative = getArgValue(str, "dns-iterative").toLowerCase().equals("true");
+        else if(str.startsWith("dns-root-hints="))
+            rootHints = getArgValue(str, "dns-root-hints");
+        else if(str.startsWith("dns-ns-port="))
+            nsPort = Integer.parseInt(getArgValue(str, "dns-ns-port"));
+        else if(str.startsWith("dns-primary="))
+            primary = getArgValue(str, "dns-primary");
+        else if(str.startsWith("dns-zones="))
+            zones = getArgValue(str, "dns-zones");
+        else if(str.startsWith("dns-notify="))
+            notify = getArgValue(str, "dns-notify");
+        else if(str.startsWith("dns-allow-transfer="))
+            allowTransfer = getArgValue(str, "dns-allow-transfer");
+        else if(str.startsWith("dns-blocklist-mode="))
+            blockWithNullAddress = getArgValue(str, "dns-blocklist-mode").toLowerCase().equals("null");
+        else if(str.startsWith("dns-blocklist="))
+            blocklist = getArgValue(str, "dns-blocklist");
+        else if(str.startsWith("dns-rcvbuf="))
+            receiveBufferSize = Integer.parseInt(getArgValue(str, "dns-rcvbuf"));
+        else if(str.startsWith("dns-sndbuf="))
+            sendBufferSize = Integer.parseInt(getArgValue(str, "dns-sndbuf"));
+        else if(str.startsWith("dns-empty-zones="))
+            emptyZones = getArgValue(str, "dns-empty-zones").toLowerCase().equals("true");
+        else
+            return false;
+        return true;
+    }
+
+    /**
+     * Build a DNS server from these settings, with the redirected domains. The server is not started.
+     * @param serverPort Port of the BedrockConnect servers in <code>ip</code> that do not specify one.
+     * @return The DNS server.
+     * @throws IOException When an address cannot be resolved or the blocklist cannot be loaded.
+     */
+    public DNSResolver createResolver(int serverPort) throws IOException {
+        DNSResolver dnsResolver = new DNSResolver(port, cacheSize);
+        dnsResolver.setRecursive(recursive);
+        dnsResolver.setEmptyZones(emptyZones);
+        dnsResolver.setSocketBuffers(receiveBufferSize, sendBufferSize);
+        if(iterative) {
+            if(rootHints == null)
+                dnsResolver.setIterative(new IterativeResolver());
+            else
+                dnsResolver.setIterative(new IterativeResolver(
+                    DNSResolver.parseAddresses(rootHints, nsPort), nsPort, 10000));
+        }
+        if(zones != null) {
+            // Declared before the entries, so entries below a declared zone go into it.
+            for(String zone : zones.split(",")) {
+                zone = zone.trim();
+                if(zone.isEmpty()) continue;
+                dnsResolver.addLocalZone(zone.endsWith(".") ? zone : zone + ".");
+            }
+        }
+        putRedirects(dnsResolver, AddressPool.parse(ip, serverPort));
+
+        if(blocklist != null) {
+            Blocklist list = Blocklist.load(new File(blocklist));
+            dnsResolver.setBlocklist(list, blockWithNullAddress);
+            System.out.printf("Loaded %d blocked domains%n", list.size());
+        }
+        if(primary != null)
+            dnsResolver.getZoneSync().setPrimary(DNSResolver.parseAddresses(primary, 53).get(0));
+        if(notify != null)
+            for(InetSocketAddress target : DNSResolver.parseAddresses(notify, 53))
+                dnsResolver.getZoneSync().addNotifyTarget(target);
+        if(allowTransfer != null)
+            for(InetSocketAddress address : DNSResolver.parseAddresses(allowTransfer, 53))
+                dnsResolver.getZoneSync().addAllowTransfer(address.getAddress());
+        return dnsResolver;
+    }
+
+    /**
+     * Point the featured server domains at the BedrockConnect servers.
+     */
+    private static void putRedirects(DNSResolver dnsResolver, AddressPool dnsPool) {
+        dnsResolver.putLocalEntry(Type.NS, "ns.hivebedrock.network.", "ns.hivebedrock.network.");
+        dnsResolver.putLocalPool("hivebedrock.network.", dnsPool);
+
+        dnsResolver.putLocalEntry(Type.NS, "ns.mineplex.com.", "ns.mineplex.com.");
+        dnsResolver.putLocalPool("mco.mineplex.com.", dnsPool);
+        dnsResolver.putLocalPool("play.mineplex.com.", dnsPool);
+
+        dnsResolver.putLocalEntry(Type.NS, "ns.inpvp.net.", "ns.inpvp.net.");
+        dnsResolver.putLocalPool("play.inpvp.net.", dnsPool);
+
+        dnsResolver.putLocalEntry(Type.NS, "ns.lbsg.net.", "ns.lbsg.net.");
+        dnsResolver.putLocalPool("mco.lbsg.net.", dnsPool);
+        dnsResolver.putLocalPool("play.lbsg.net.", dnsPool);
+
+        dnsResolver.putLocalEntry(Type.NS, "ns.cubecraft.net.", "ns.cubecraft.net.");
+        dnsResolver.putLocalPool("mco.cubecraft.net.", dnsPool);
+
+        dnsResolver.putLocalEntry(Type.NS, "ns.galaxite.net.", "ns.galaxite.net.");
+        dnsResolver.putLocalPool("play.galaxite.net.", dnsPool);
+    }
+
+    private static String getArgValue(String str, String name) {
+        String target = name + "=";
+        int index = str.indexOf(target);
+        int subIndex = index + target.length();
+        return str.substring(subIndex);
+    }
+}
@@ -0,0 +1,55 @@
+package main.com.pyratron.pugmatt.bedrockconnect.dns;
+
+import java.util.Scanner;
+
+/**
+ * Entry point of the standalone DNS server, for nodes that only serve DNS.
+ *
+ * Takes the same <code>dns-*</code> arguments and <code>BC_DNS_*</code> environment variables as
+ * the serverlist server, except <code>dns-on</code>: the DNS server is always on.
+ * Type <code>reload</code> to apply a changed <code>dns-config</code> file, or <code>stop</code> to exit.
+ */
+public class DNSDaemon {
+    /**
+     * Default port of the BedrockConnect servers in <code>dns-ip</code>.
+     */
+    private static final int SERVER_PORT = 19132;
+
+    public static void main(String[] args) {
+        System.out.println("-= BedrockConnect DNS =-");
+        DNSConfig config;
+        DNSResolver dnsResolver;
+        try {
+            config = DNSConfig.load(args);
+            for(String str : args) {
+                if(!config.parseArg(str)) System.out.println("Unknown argument: " + str);
+            }
+            dnsResolver = config.createResolver(SERVER_PORT);
+            dnsResolver.start();
+            config.watch(dnsResolver, SERVER_PORT);
+            System.out.println("DNS resolver started.");
+        } catch (Exception e) {
+            e.printStackTrace();
+            System.exit(1);
+            return;
+        }
+
+        Scanner sc = new Scanner(System.in);
+        while(sc.hasNextLine()) {
+            switch(sc.nextLine().trim()) {
+                case "reload":
+                    try {
+                        config = config.reload(dnsResolver, SERVER_PORT);
+                    } catch (Exception e) {
+                        System.out.println("Unable to reload DNS configuration, keeping the current one: " + e.getMessage());
+                    }
+                    break;
+                case "end":
+                case "stop":
+                    dnsResolver.stop();
+                    System.exit(0);
+                    break;
+            }
+        }
+    }
+}
@@ -1,7 +1,6 @@
 package main.com.pyratron.pugmatt.bedrockconnect.dns;
 
 import org.xbill.DNS.Name;
-import java.util.Objects;
 
 /**
  * The Key of A DNS query. Includes name and type.
@@ -28,6 +27,6 @@ public class DNSKey {
 
     @Override
     public int hashCode() {
-        return Objects.hash(type, name);
+        return 31 * type + name.hashCode();
     }
 }
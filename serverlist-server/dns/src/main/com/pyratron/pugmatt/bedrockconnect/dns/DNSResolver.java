@@ -0,0 +1,961 @@
+package main.com.pyratron.pugmatt.bedrockconnect.dns;
+
+import org.xbill.DNS.*;
+import org.xbill.DNS.Record;
+import org.xbill.DNS.Serial;
+
+import java.io.*;
+import java.net.*;
+import java.util.*;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.stream.Collectors;
+
+/**
+ * Implementation of A DNS server.
+ *
+ * Treat local records with a higher priority. Perform recursive queries on unknown domains.
+ *
+ */
+public class DNSResolver {
+    private Thread thread = null;
+    private Thread tcpThread = null;
+    private volatile DatagramSocket socket = null;
+    private ServerSocket tcpSocket = null;
+    private volatile boolean isLive = false;
+    private final int port;
+    private static final int UDP_SIZE = 512;
+
+    /**
+     * Local entries, cache and settings queries are answered from. Replaced as a whole by {@link #reload(DNSResolver)}.
+     */
+    private final AtomicReference<ResolverState> state;
+    /**
+     * Runs pool health checks and the decay of the top-K statistics.
+     */
+    private final ScheduledExecutorService maintenance = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "DNS Maintenance");
+        t.setDaemon(true);
+        return t;
+    });
+    /**
+     * Periodic tasks on {@link #maintenance}, scheduled by {@link #start()} and cancelled by {@link #stop()}.
+     */
+    private final List<ScheduledFuture<?>> maintenanceTasks = new ArrayList<>();
+    /**
+     * Replication of local zones to and from other nodes.
+     */
+    private final ZoneSync zoneSync = new ZoneSync(this);
+
+    /**
+     * TTL of answers to blocked domains.
+     */
+    private static final int BLOCKED_TTL = 300;
+
+    /**
+     * Name of the CHAOS TXT record holding the server's counters.
+     */
+    private static final Name STATS_NAME = Name.fromConstantString("stats.bedrockconnect.");
+    private final DNSStats stats = new DNSStats();
+    /**
+     * Interval between samples of the kernel's UDP socket counters, in seconds.
+     */
+    private static final int KERNEL_SAMPLE_INTERVAL = 10;
+
+    /**
+     * Construct a DNS server to listen on <code>port</code>
+     * @param port The port to listen on
+     */
+    public DNSResolver(int port) {
+        this(port, 1000);
+    }
+
+    public DNSResolver(int port, int cache_size) {
+        this.port = port;
+        this.state = new AtomicReference<>(new ResolverState(cache_size));
+    }
+
+    /**
+     * Fetch a non-local record from Internet. Use system DNS server and resolvers, or resolve
+     * from the root hints in iterative mode.
+     * Will NOT use cache, but caches the result.
+     * @param s The state answering the query.
+     * @param key The entry to look up for.
+     * @return A list of completed DNS records.
+     */
+    private List<Record> hardRecurse(ResolverState s, DNSKey key) {
+        stats.topMisses.add(key.name);
+        if(s.iterative != null) {
+            List<Record> result = s.iterative.resolve(key.name, key.type);
+            s.cacheResult(key, result);
+            return result;
+        }
+
+        Lookup lookup = new Lookup(key.name, key.type);
+        lookup.setCache(s.dnsCache);
+        lookup.run();
+        LinkedList<Record> result = new LinkedList<>();
+        if(lookup.getResult() == Lookup.SUCCESSFUL) {
+            result.addAll(Arrays.asList(lookup.getAnswers()));
+        }
+
+        if(lookup.getAliases().length != 0)
+            result.addAll(
+                Arrays.stream(lookup.getAliases()).parallel()
+                    .map((name) -> {
+                        Lookup lkup = new Lookup(name, Type.CNAME);
+                        lkup.run();
+                        return lkup.getAnswers();
+                    }).flatMap(Arrays::stream)
+                    .collect(Collectors.toList())
+            );
+
+        s.cacheResult(key, result);
+        return result;
+    }
+
+    /**
+     * Start the DNS server.
+     */
+    public synchronized void start() {
+        isLive = true;
+        thread = new Thread(this::serve);
+        thread.start();
+
+        if(tcpThread == null) {
+            Thread tcp = new Thread(() -> {
+                try {
+                    serveTcp();
+                } catch (IOException e) {
+                    if(isLive) {
+                        System.out.println("DNS Resolver could not serve TCP. Zone transfers are unavailable.");
+                        e.printStackTrace();
+                    }
+                }
+                synchronized (this) {
+                    if(tcpThread == Thread.currentThread()) tcpThread = null;
+                }
+            });
+            tcpThread = tcp;
+            tcp.start();
+        }
+
+        if(maintenanceTasks.isEmpty()) {
+            zoneSync.start();
+            maintenanceTasks.add(maintenance.scheduleWithFixedDelay(() -> {
+                for(AddressPool pool : new HashSet<>(state.get().pools.values())) {
+                    if(pool.size() > 1) pool.check();
+                }
+            }, 0, AddressPool.CHECK_INTERVAL, TimeUnit.MILLISECONDS));
+            maintenanceTasks.add(maintenance.scheduleAtFixedRate(stats::decay, 1, 1, TimeUnit.MINUTES));
+            if(KernelUdpStats.isAvailable()) {
+                maintenanceTasks.add(maintenance.scheduleWithFixedDelay(this::sampleKernelStats,
+                    KERNEL_SAMPLE_INTERVAL, KERNEL_SAMPLE_INTERVAL, TimeUnit.SECONDS));
+            }
+        }
+    }
+
+    /**
+     * Stop the DNS server, and the health checks, statistics and zone refreshes running with it.
+     * It can be started again.
+     */
+    public synchronized void stop() {
+        isLive = false;
+        if(thread != null) thread.interrupt();
+        thread = null;
+        tcpThread = null;
+        DatagramSocket udp = socket;
+        if(udp != null) udp.close();
+        try {
+            if(tcpSocket != null) tcpSocket.close();
+        } catch (IOException ignored) {
+        }
+        for(ScheduledFuture<?> task : maintenanceTasks) task.cancel(false);
+        maintenanceTasks.clear();
+        zoneSync.stop();
+    }
+
+    /**
+     * Replace the local entries, cache and settings with those of another resolver, e.g. one built
+     * from a reloaded configuration. The sockets stay open, so no query is dropped: queries being answered
+     * finish on the old state, and later ones use the new state. Cached answers are carried over, and so are
+     * zones a secondary has transferred from its primary, so it does not fall back to its own entries
+     * until the next transfer.
+     *
+     * The port cannot change on reload.
+     * @param fresh A resolver holding the new state. It must not have been started, and is not used afterwards.
+     */
+    public void reload(DNSResolver fresh) {
+        ResolverState next = fresh.state.get();
+        ResolverState previous = state.get();
+        zoneSync.copySettings(fresh.zoneSync);
+        if(zoneSync.isSecondary()) {
+            for(LocalZone zone : next.localZones.values()) {
+                LocalZone transferred = previous.localZones.get(zone.getOrigin());
+                if(transferred == null || !zoneSync.isLoaded(zone.getOrigin())) continue;
+                Set<DNSKey> ownKeys = zone.getRRsets().keySet();
+                zone.copyFrom(transferred);
+                reindex(next, zone, ownKeys);
+            }
+        }
+        next.inheritCache(previous);
+        state.set(next);
+
+        zoneSync.reloaded(next.localZones.values());
+        DatagramSocket udp = socket;
+        if(udp != null) {
+            try {
+                applyBufferSizes(udp, next);
+            } catch (SocketException e) {
+                System.out.println("Unable to resize DNS socket buffers: " + e.getMessage());
+            }
+        }
+        if(fresh.port != port) {
+            System.out.printf("DNS port stays %d until restart%n", port);
+        }
+        System.out.printf("DNS configuration reloaded: %d local entries, %d cached answers kept%n",
+            next.localEntries.size(), next.cachedEntries.size());
+    }
+
+    /**
+     * Copy the kernel's counters of the UDP socket into the stats, and warn when packets were dropped.
+     */
+    private void sampleKernelStats() {
+        KernelUdpStats.Sample sample = KernelUdpStats.sample(port);
+        if(sample.sockets == 0) return;
+        long previous = stats.kernelDrops.getAndSet(sample.drops);
+        stats.kernelRxQueue.set(sample.rxQueue);
+        stats.kernelTxQueue.set(sample.txQueue);
+        if(sample.drops > previous) {
+            System.out.printf("DNS socket dropped %d packets in the kernel (receive queue %d bytes). " +
+                "Consider a larger dns-rcvbuf.%n", sample.drops - previous, sample.rxQueue);
+        }
+    }
+
+    /**
+     * Listen to the UDP socket, and send packets to handler.
+     * The socket stays open until the server stops, and is reopened only if it was closed
+     * unexpectedly. Binding is retried every 5s until it succeeds.
+     */
+    private void serve() {
+        while(isLive) {
+            DatagramSocket udp;
+            try {
+                udp = bind();
+            } catch (IOException e) {
+                System.out.println("DNS Resolver could not bind to port " + port + ". Retrying in 5s...");
+                e.printStackTrace();
+                try {
+                    Thread.sleep(5000);
+                } catch (InterruptedException interruptedException) {
+                    return;
+                }
+                continue;
+            }
+            socket = udp;
+
+            while(isLive && !udp.isClosed()) {
+                byte[] inBuffer = new byte[UDP_SIZE];
+                DatagramPacket reqPacket = new DatagramPacket(inBuffer, UDP_SIZE);
+                try {
+                    udp.receive(reqPacket); // This method is BLOCKING.
+                } catch (IOException e) {
+                    if(isLive && !udp.isClosed()) {
+                        System.out.println("An IO Exception happened in DNS resolver.");
+                        e.printStackTrace();
+                    }
+                    continue;
+                }
+                stats.udpReceived.increment();
+                Thread handlerThread = new Thread(() -> handle(reqPacket, udp));
+                handlerThread.start();
+            }
+        }
+    }
+
+    /**
+     * Open the UDP socket.
+     * @return The bound socket.
+     * @throws IOException When the socket cannot be bound. i.e. Port in use.
+     */
+    private DatagramSocket bind() throws IOException {
+        ResolverState s = state.get();
+        DatagramSocket udp = new DatagramSocket(port);
+        applyBufferSizes(udp, s);
+        System.out.printf("DNS Server started: 0.0.0.0:%d%n", port);
+        System.out.printf("DNS Settings: [Recursive=%s, Iterative=%s, Cache Size=%d, Receive Buffer=%d, Send Buffer=%d] %n",
+            s.recursive, s.iterative != null, s.cacheSize, udp.getReceiveBufferSize(), udp.getSendBufferSize());
+        return udp;
+    }
+
+    private static void applyBufferSizes(DatagramSocket udp, ResolverState s) throws SocketException {
+        // The kernel may cap these, e.g. at net.core.rmem_max on Linux.
+        if(s.receiveBufferSize > 0) udp.setReceiveBufferSize(s.receiveBufferSize);
+        if(s.sendBufferSize > 0) udp.setSendBufferSize(s.sendBufferSize);
+    }
+
+    /**
+     * Listen to the TCP socket. Serves zone transfers and regular queries.
+     * @throws IOException When the TCP socket generates an error. i.e. Cannot bind to port.
+     */
+    private void serveTcp() throws IOException {
+        tcpSocket = new ServerSocket(port);
+        while(isLive) {
+            Socket client = tcpSocket.accept();
+            new Thread(() -> handleTcp(client)).start();
+        }
+    }
+
+    /**
+     * Handle a TCP connection. Each message is prefixed with its length, as per RFC 1035.
+     * @param client The connection.
+     */
+    private void handleTcp(Socket client) {
+        try (Socket s = client) {
+            s.setSoTimeout(10000);
+            DataInputStream in = new DataInputStream(new BufferedInputStream(s.getInputStream()));
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(s.getOutputStream()));
+            while(true) {
+                int length;
+                try {
+                    length = in.readUnsignedShort();
+                } catch (EOFException e) {
+                    return;
+                }
+                byte[] data = new byte[length];
+                in.readFully(data);
+
+                List<byte[]> responses;
+                Message request = new Message(data);
+                int qtype = request.getQuestion() == null ? 0 : request.getQuestion().getType();
+                if(qtype == Type.AXFR || qtype == Type.IXFR) {
+                    responses = transfer(request, s.getInetAddress());
+                } else {
+                    responses = Collections.singletonList(answer(data, length, s.getInetAddress()));
+                }
+                for(byte[] resp : responses) {
+                    out.writeShort(resp.length);
+                    out.write(resp);
+                }
+                out.flush();
+            }
+        } catch (SocketTimeoutException ignored) {
+        } catch (IOException ex) {
+            System.out.println("An IO Exception happened in DNS resolver.");
+            ex.printStackTrace();
+        }
+    }
+
+    /**
+     * Handle a UDP packet of DNS request, and send it via a socket
+     * @param reqPacket The incoming DNS request packet.
+     * @param socket The socket to send response to.
+     */
+    private void handle(DatagramPacket reqPacket, DatagramSocket socket) {
+        try {
+            byte[] resp = answer(reqPacket.getData(), reqPacket.getLength(), reqPacket.getAddress());
+            DatagramPacket resPacket =
+                new DatagramPacket(resp, resp.length, reqPacket.getAddress(), reqPacket.getPort());
+            socket.send(resPacket);
+            stats.udpSent.increment();
+        } catch (IOException ex) {
+            System.out.println("An IO Exception happened in DNS resolver.");
+            ex.printStackTrace();
+        }
+    }
+
+    /**
+     * Compute the wire format response to a DNS request.
+     * Cache hits are answered from the raw request without parsing it into a {@link Message}.
+     * @param data The request.
+     * @param length Length of the request in <code>data</code>.
+     * @param client Address the request came from.
+     * @return The response.
+     * @throws IOException When the request cannot be parsed.
+     */
+    private byte[] answer(byte[] data, int length, InetAddress client) throws IOException {
+        ResolverState s = state.get();
+        stats.queries.increment();
+        stats.topClients.add(DNSStats.clientPrefix(client));
+        int questionEnd = questionEnd(data, length);
+        if(questionEnd > 0) {
+            DNSInput in = new DNSInput(data);
+            in.jump(12);
+            DNSKey currKey = new DNSKey(0, new Name(in));
+            currKey.type = in.readU16();
+
+            stats.topNames.add(currKey.name);
+
+            if(!s.localEntries.containsKey(currKey)) {
+                // Empty zones come before the blocklist and the cache, which may hold upstream answers for them.
+                EmptyZones emptyZones = s.emptyZones;
+                int emptyZone;
+                if(emptyZones != null && (emptyZone = emptyZones.find(currKey.name)) >= 0) {
+                    return constructEmptyZoneResponse(s, emptyZones, new Message(data), emptyZone);
+                }
+                if(s.blocklist != null && s.blocklist.contains(data, 12)) {
+                    stats.blocked.increment();
+                    return constructBlockedResponse(s, data, questionEnd, currKey.type);
+                }
+                if(s.recursive) {
+                    CachedAnswer cached = s.getCached(currKey);
+                    if(cached != null) {
+                        stats.cacheHits.increment();
+                        return constructCachedResponse(s, data, questionEnd, cached);
+                    }
+                }
+            }
+        }
+
+        Message request = new Message(data);
+        if(request.getHeader().getOpcode() == Opcode.NOTIFY) {
+            stats.notifies.increment();
+            return handleNotify(request, client).toWire();
+        }
+
+        Record requestRecord = request.getQuestion();
+        if(requestRecord.getType() == Type.AXFR || requestRecord.getType() == Type.IXFR) {
+            // Transfers need TCP. Tell IXFR clients to retry there.
+            Message response = constructResponse(request, Collections.emptyList());
+            if(requestRecord.getType() == Type.IXFR) response.getHeader().setFlag(Flags.TC);
+            else response.getHeader().setRcode(Rcode.REFUSED);
+            return response.toWire();
+        }
+
+        if(requestRecord.getDClass() == DClass.CH && requestRecord.getName().equals(STATS_NAME)) {
+            return constructStatsResponse(request, client).toWire();
+        }
+
+        DNSKey currKey = new DNSKey(requestRecord.getType(), requestRecord.getName());
+        if(questionEnd <= 0) stats.topNames.add(currKey.name);
+        int emptyZone = -1;
+
+//        if(currKey.name.toString().endsWith(".lan.")) {
+//            String modifiedName = currKey.name.toString();
+//            modifiedName = modifiedName.substring(0, modifiedName.length() - 4);
+//            currKey.name = Name.fromString(modifiedName);
+//        }
+
+        EmptyZones emptyZones = s.emptyZones;
+        List<Record> local = s.localEntries.get(currKey);
+        if(local != null) {
+            stats.local.increment();
+            AddressPool pool = s.pools.get(currKey);
+            List<Record> records = pool != null ? pool.answer(currKey.name, currKey.type) : local;
+            return constructResponse(request, records).toWire();
+        } else if (emptyZones != null && (emptyZone = emptyZones.find(currKey.name)) >= 0) {
+            return constructEmptyZoneResponse(s, emptyZones, request, emptyZone);
+        } else if (s.blocklist != null && s.blocklist.contains(currKey.name)) {
+            stats.blocked.increment();
+            if(!s.blockWithNullAddress) return constructNXDomainResponse(request).toWire();
+            List<Record> answers = new ArrayList<>();
+            if(currKey.type == Type.A)
+                answers.add(new ARecord(currKey.name, DClass.IN, BLOCKED_TTL, InetAddress.getByAddress(new byte[4])));
+            else if(currKey.type == Type.AAAA)
+                answers.add(new AAAARecord(currKey.name, DClass.IN, BLOCKED_TTL, InetAddress.getByAddress(new byte[16])));
+            return constructResponse(request, answers).toWire();
+        } else if (s.recursive) {
+            stats.upstream.increment();
+            List<Record> answers = hardRecurse(s, currKey);
+            if(answers != null) {
+                return constructResponse(request, answers).toWire();
+            }
+        }
+
+        // Send a NXDOMAIN response.
+        stats.nxdomain.increment();
+        return constructNXDomainResponse(request).toWire();
+    }
+
+    /**
+     * Answer a query for a name in a private-use or special-use zone.
+     * @param s The state answering the query.
+     * @param emptyZones The empty zones of <code>s</code>.
+     * @param request The query.
+     * @param emptyZone Index of the zone the name is in.
+     * @return The response.
+     */
+    private byte[] constructEmptyZoneResponse(ResolverState s, EmptyZones emptyZones, Message request, int emptyZone) {
+        stats.emptyZone.increment();
+        Message response = emptyZones.answer(request, emptyZone);
+        if(s.recursive) response.getHeader().setFlag(Flags.RA);
+        return response.toWire();
+    }
+
+    /**
+     * Find the end of the question section of a raw request.
+     * @param data The request.
+     * @param length Length of the request in <code>data</code>.
+     * @return Offset right after the question, or -1 if the request is not a plain single-question query.
+     */
+    static int questionEnd(byte[] data, int length) {
+        // QR clear, opcode QUERY, exactly one question.
+        if(length < 17 || (data[2] & 0xF8) != 0 || data[4] != 0 || data[5] != 1) return -1;
+        int pos = 12;
+        while(pos < length) {
+            int label = data[pos] & 0xFF;
+            if(label == 0) {
+                pos += 5; // Root label, QTYPE and QCLASS.
+                // Class IN only. Other classes, e.g. the CHAOS stats query, take the regular path.
+                return pos <= length && data[pos - 2] == 0 && data[pos - 1] == DClass.IN ? pos : -1;
+            }
+            if((label & 0xC0) != 0) return -1; // Compression is not expected in the question.
+            pos += label + 1;
+        }
+        return -1;
+    }
+
+    /**
+     * Build a response from a cached answer: a fresh header, the question copied from the request,
+     * and the cached answer section with rewritten TTLs.
+     * @param s The state answering the query.
+     * @param request The raw request.
+     * @param questionEnd Offset right after the question in <code>request</code>.
+     * @param cached The cached answer.
+     * @return The response.
+     */
+    static byte[] constructCachedResponse(ResolverState s, byte[] request, int questionEnd, CachedAnswer cached) {
+        byte[] resp = new byte[questionEnd + cached.getLength()];
+        resp[0] = request[0]; // ID
+        resp[1] = request[1];
+        resp[2] = (byte) (0x80 | (request[2] & 0x01)); // QR, and RD if requested.
+        resp[3] = (byte) (s.recursive ? 0x80 : 0); // RA, NOERROR
+        resp[5] = 1; // QDCOUNT
+        resp[6] = (byte) (cached.getCount() >>> 8); // ANCOUNT
+        resp[7] = (byte) cached.getCount();
+        System.arraycopy(request, 12, resp, 12, questionEnd - 12);
+        cached.writeTo(resp, questionEnd);
+        return resp;
+    }
+
+    /**
+     * Build a response for a blocked domain from the raw request: NXDOMAIN, or 0.0.0.0 / :: for
+     * A and AAAA queries if null addresses are enabled.
+     * @param s The state answering the query.
+     * @param request The raw request.
+     * @param questionEnd Offset right after the question in <code>request</code>.
+     * @param type The query type.
+     * @return The response.
+     */
+    private byte[] constructBlockedResponse(ResolverState s, byte[] request, int questionEnd, int type) {
+        int rdlength = type == Type.A ? 4 : type == Type.AAAA ? 16 : 0;
+        boolean withAnswer = s.blockWithNullAddress && rdlength > 0;
+        byte[] resp = new byte[questionEnd + (withAnswer ? 12 + rdlength : 0)];
+        resp[0] = request[0]; // ID
+        resp[1] = request[1];
+        resp[2] = (byte) (0x80 | (request[2] & 0x01)); // QR, and RD if requested.
+        resp[3] = (byte) ((s.recursive ? 0x80 : 0) | (s.blockWithNullAddress ? Rcode.NOERROR : Rcode.NXDOMAIN));
+        resp[5] = 1; // QDCOUNT
+        System.arraycopy(request, 12, resp, 12, questionEnd - 12);
+        if(withAnswer) {
+            resp[7] = 1; // ANCOUNT
+            int pos = questionEnd;
+            resp[pos] = (byte) 0xC0; // Pointer to the name in the question.
+            resp[pos + 1] = 12;
+            resp[pos + 3] = (byte) type;
+            resp[pos + 5] = DClass.IN;
+            resp[pos + 8] = (byte) (BLOCKED_TTL >>> 8);
+            resp[pos + 9] = (byte) BLOCKED_TTL;
+            resp[pos + 11] = (byte) rdlength;
+            // The address stays all zeroes.
+        }
+        return resp;
+    }
+
+    /**
+     * Answer a NOTIFY. If it comes from the primary, refresh the zone.
+     * @param request The NOTIFY message.
+     * @param client Address the NOTIFY came from.
+     * @return The response.
+     */
+    private Message handleNotify(Message request, InetAddress client) {
+        Message response = new Message(request.getHeader().getID());
+        response.getHeader().setOpcode(Opcode.NOTIFY);
+        response.getHeader().setFlag(Flags.QR);
+        Record question = request.getQuestion();
+        if(question != null) response.addRecord(question, Section.QUESTION);
+
+        LocalZone zone = question == null ? null : state.get().localZones.get(question.getName());
+        if(zone == null || !zoneSync.acceptsNotify(client)) {
+            response.getHeader().setRcode(Rcode.REFUSED);
+            return response;
+        }
+        response.getHeader().setFlag(Flags.AA);
+        zoneSync.scheduleRefresh(zone);
+        return response;
+    }
+
+    /**
+     * Answer an AXFR or IXFR request.
+     *
+     * AXFR sends the SOA, all records, then the SOA again. IXFR sends only the changes since the
+     * client's serial if the journal still has them, otherwise the whole zone like AXFR.
+     * @param request The transfer request.
+     * @param client Address of the client.
+     * @return The response messages, in order.
+     */
+    private List<byte[]> transfer(Message request, InetAddress client) {
+        stats.transfers.increment();
+        Record question = request.getQuestion();
+        LocalZone zone = state.get().localZones.get(question.getName());
+        if(zone == null || !zoneSync.mayTransfer(client)) {
+            Message refused = constructResponse(request, Collections.emptyList());
+            refused.getHeader().setRcode(zone == null ? Rcode.NOTAUTH : Rcode.REFUSED);
+            return Collections.singletonList(refused.toWire());
+        }
+
+        // Snapshot the zone, so a concurrent change cannot tear the transfer.
+        List<Record> records;
+        List<LocalZone.Delta> deltas = null;
+        SOARecord soa;
+        synchronized (zone) {
+            soa = zone.getSOA();
+            records = zone.getRecords();
+            if(question.getType() == Type.IXFR) {
+                List<Record> authority = request.getSection(Section.AUTHORITY);
+                if(!authority.isEmpty() && authority.get(0) instanceof SOARecord) {
+                    long clientSerial = ((SOARecord) authority.get(0)).getSerial();
+                    if(Serial.compare(clientSerial, soa.getSerial()) >= 0) {
+                        return Collections.singletonList(transferMessage(request, Collections.singletonList(soa)).toWire());
+                    }
+                    deltas = zone.getDeltasSince(clientSerial);
+                }
+            }
+        }
+
+        List<Record> stream = new ArrayList<>();
+        stream.add(soa);
+        if(deltas != null) {
+            for(LocalZone.Delta d : deltas) {
+                stream.add(withSerial(soa, d.from));
+                stream.addAll(d.deletes);
+                stream.add(withSerial(soa, d.to));
+                stream.addAll(d.adds);
+            }
+        } else {
+            stream.addAll(records);
+        }
+        stream.add(soa);
+
+        List<byte[]> responses = new ArrayList<>();
+        for(int i = 0; i < stream.size(); i += 100) {
+            responses.add(transferMessage(request, stream.subList(i, Math.min(stream.size(), i + 100))).toWire());
+        }
+        return responses;
+    }
+
+    /**
+     * Answer the CHAOS TXT stats query. Only clients allowed to transfer zones may read the counters.
+     * @param request The query.
+     * @param client Address of the client.
+     * @return The counters as TXT strings, or REFUSED.
+     */
+    private Message constructStatsResponse(Message request, InetAddress client) {
+        Message response = constructResponse(request, Collections.emptyList());
+        if(!zoneSync.mayTransfer(client)) {
+            response.getHeader().setRcode(Rcode.REFUSED);
+        } else if(request.getQuestion().getType() == Type.TXT) {
+            response.getHeader().setFlag(Flags.AA);
+            response.addRecord(new TXTRecord(STATS_NAME, DClass.CH, 0, stats.toStrings()), Section.ANSWER);
+        }
+        return response;
+    }
+
+    private static Message transferMessage(Message request, List<Record> records) {
+        Message response = new Message(request.getHeader().getID());
+        response.getHeader().setFlag(Flags.QR);
+        response.getHeader().setFlag(Flags.AA);
+        response.addRecord(request.getQuestion(), Section.QUESTION);
+        for(Record r : records) response.addRecord(r, Section.ANSWER);
+        return response;
+    }
+
+    private static SOARecord withSerial(SOARecord soa, long serial) {
+        return new SOARecord(soa.getName(), soa.getDClass(), soa.getTTL(), soa.getHost(), soa.getAdmin(),
+            serial, soa.getRefresh(), soa.getRetry(), soa.getExpire(), soa.getMinimum());
+    }
+
+    /**
+     * Add a local entry with reduced parameters. Default TTL is 86400s, and dtype is DClass.IN.
+     * @param type The type of record. e.g. Type.A
+     * @param domain The string domain, including zone and subdomain. e.g. p5mc.vworks.cc
+     * @param record The record, could different depending on the type of record.
+     * @return If the operation was successful.
+     */
+    public boolean putLocalEntry(int type, String domain, String record) {
+        return putLocalEntry(type, domain, record, 86400, DClass.IN);
+    }
+
+    /**
+     * Add a local entry.
+     * @param type The type of record. e.g. Type.A
+     * @param domain The string domain, including zone and subdomain. e.g. p5mc.vworks.cc
+     * @param record The record, could different depending on the type of record.
+     * @param ttl TTL of the record. It will never expire on this server though.
+     * @param dtype The class of this record. DClass.IN, DClass.CHAOS, etc.
+     * @return If the operation was successful.
+     */
+    public boolean putLocalEntry(int type, String domain, String record, int ttl, int dtype) {
+        try {
+            Name domain_name = new Name(domain);
+            DNSKey key = new DNSKey(type, domain_name);
+            Record rec = Record.fromString(domain_name, type, dtype, ttl, record, Name.root);
+            ResolverState s = state.get();
+            LocalZone zone = s.zoneFor(domain_name);
+            List<Record> rrset = Collections.singletonList(rec);
+            zone.put(key, rrset);
+            s.localEntries.put(key, rrset);
+            s.pools.remove(key);
+            zoneSync.changed(zone);
+        } catch (IOException e) {
+            e.printStackTrace();
+            return false;
+
+        }
+        return true;
+    }
+
+    /**
+     * Add local A and AAAA entries answered from a pool of servers. Each answer lists the healthy
+     * servers, starting with the next one in weighted round-robin order.
+     * @param domain The string domain, including zone and subdomain. e.g. p5mc.vworks.cc
+     * @param pool The servers. A pool may be shared by several domains, and is health checked once.
+     * @return If the operation was successful.
+     */
+    public boolean putLocalPool(String domain, AddressPool pool) {
+        try {
+            Name domain_name = new Name(domain);
+            ResolverState s = state.get();
+            LocalZone zone = s.zoneFor(domain_name);
+            for(int type : new int[] { Type.A, Type.AAAA }) {
+                DNSKey key = new DNSKey(type, domain_name);
+                List<Record> rrset = pool.getRecords(domain_name, type);
+                if(rrset.isEmpty()) continue;
+                zone.put(key, rrset);
+                s.pools.put(key, pool);
+                s.localEntries.put(key, rrset);
+            }
+            zoneSync.changed(zone);
+        } catch (TextParseException e) {
+            e.printStackTrace();
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Remove a local entry.
+     * @param type The type of record. e.g. Type.A
+     * @param domain The string domain, including zone and subdomain. e.g. p5mc.vworks.cc
+     * @return If the operation was successful.
+     */
+    public boolean removeLocalEntry(int type, String domain) {
+        try {
+            Name domain_name = new Name(domain);
+            DNSKey key = new DNSKey(type, domain_name);
+            ResolverState s = state.get();
+            LocalZone zone = s.zoneFor(domain_name);
+            zone.put(key, Collections.emptyList());
+            s.localEntries.remove(key);
+            s.pools.remove(key);
+            zoneSync.changed(zone);
+        } catch (TextParseException e) {
+            e.printStackTrace();
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Declare a zone for local entries. Entries outside declared zones go to a zone made of the
+     * last two labels of their name, e.g. mco.mineplex.com goes to mineplex.com
+     * @param origin The apex of the zone. e.g. example.co.uk.
+     * @return If the operation was successful.
+     */
+    public boolean addLocalZone(String origin) {
+        try {
+            Name name = new Name(origin);
+            state.get().localZones.putIfAbsent(name, new LocalZone(name));
+        } catch (TextParseException e) {
+            e.printStackTrace();
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * @return All local zones.
+     */
+    public Collection<LocalZone> getLocalZones() {
+        return state.get().localZones.values();
+    }
+
+    /**
+     * @return Replication settings of local zones.
+     */
+    public ZoneSync getZoneSync() {
+        return zoneSync;
+    }
+
+    /**
+     * Replace a local zone with the result of a full transfer.
+     * @param zone The zone.
+     * @param serial The serial of the transferred zone.
+     * @param records The transferred records.
+     */
+    void loadZone(LocalZone zone, long serial, List<Record> records) {
+        Set<DNSKey> oldKeys = zone.getRRsets().keySet();
+        zone.load(serial, records);
+        reindex(zone, oldKeys);
+    }
+
+    /**
+     * Apply an incremental transfer to a local zone.
+     * @return False if the change does not apply to the zone's current serial.
+     */
+    boolean applyDelta(LocalZone zone, long from, long to, List<Record> deletes, List<Record> adds) {
+        Set<DNSKey> oldKeys = zone.getRRsets().keySet();
+        if(!zone.apply(from, to, deletes, adds)) return false;
+        reindex(zone, oldKeys);
+        zoneSync.changed(zone);
+        return true;
+    }
+
+    /**
+     * Bring the local entry index in line with a zone's content, after a transfer.
+     * Transferred records replace this node's own pools for the same names, which would otherwise
+     * keep answering over them. New entries are added before stale ones are removed, so no query
+     * falls through in between.
+     */
+    private void reindex(LocalZone zone, Set<DNSKey> oldKeys) {
+        reindex(state.get(), zone, oldKeys);
+    }
+
+    private static void reindex(ResolverState s, LocalZone zone, Set<DNSKey> oldKeys) {
+        if(s.localZones.get(zone.getOrigin()) != zone) return; // Replaced by a reload meanwhile.
+        Map<DNSKey, List<Record>> current = zone.getRRsets();
+        for(DNSKey key : oldKeys) s.pools.remove(key);
+        for(DNSKey key : current.keySet()) s.pools.remove(key);
+        s.localEntries.putAll(current);
+        for(DNSKey key : oldKeys) {
+            if(!current.containsKey(key)) s.localEntries.remove(key);
+        }
+    }
+
+    /**
+     * Control whether recursive lookups shall be performed.
+     * @param recursive True or False.
+     */
+    public void setRecursive(boolean recursive) {
+        state.get().recursive = recursive;
+    }
+
+    /**
+     * Resolve from the root hints instead of forwarding to the system resolvers.
+     * @param iterative The iterative resolver to use, or null to forward through the system resolvers.
+     */
+    public void setIterative(IterativeResolver iterative) {
+        state.get().iterative = iterative;
+    }
+
+    /**
+     * Set the socket buffer sizes of the UDP listener. Takes effect when the socket is opened, or on reload.
+     * A larger receive buffer absorbs bursts that the handler cannot keep up with.
+     * @param receive SO_RCVBUF in bytes, or 0 for the system default.
+     * @param send SO_SNDBUF in bytes, or 0 for the system default.
+     */
+    public void setSocketBuffers(int receive, int send) {
+        ResolverState s = state.get();
+        s.receiveBufferSize = receive;
+        s.sendBufferSize = send;
+    }
+
+    /**
+     * Control whether private-use and special-use zones (RFC 6303) are answered locally.
+     * @param enabled True to answer them locally, false to resolve them like other names.
+     */
+    public void setEmptyZones(boolean enabled) {
+        state.get().emptyZones = enabled ? new EmptyZones() : null;
+    }
+
+    /**
+     * @return Counters of the DNS server.
+     */
+    public DNSStats getStats() {
+        return stats;
+    }
+
+    /**
+     * Parse a comma separated list of addresses.
+     * @param spec Entries in the form <code>host</code> or <code>host:port</code>, e.g. 127.0.0.2:5353,127.0.0.3:5353
+     * @param defaultPort The port used by entries without one.
+     * @return The parsed addresses.
+     * @throws UnknownHostException When a host cannot be resolved.
+     */
+    public static List<InetSocketAddress> parseAddresses(String spec, int defaultPort) throws UnknownHostException {
+        List<InetSocketAddress> addresses = new ArrayList<>();
+        for(String entry : spec.split(",")) {
+            entry = entry.trim();
+            if(entry.isEmpty()) continue;
+            String host = entry;
+            int port = defaultPort;
+            int colon = entry.lastIndexOf(':');
+            if(colon > 0 && entry.indexOf(':') == colon) {
+                host = entry.substring(0, colon);
+                port = Integer.parseInt(entry.substring(colon + 1));
+            }
+            addresses.add(new InetSocketAddress(InetAddress.getByName(host), port));
+        }
+        return addresses;
+    }
+
+    /**
+     * Answer domains in a blocklist locally.
+     * @param blocklist The blocklist, or null to disable blocking.
+     * @param nullAddress True to answer A and AAAA queries with 0.0.0.0 and ::, false to answer NXDOMAIN.
+     */
+    public void setBlocklist(Blocklist blocklist, boolean nullAddress) {
+        ResolverState s = state.get();
+        s.blocklist = blocklist;
+        s.blockWithNullAddress = nullAddress;
+    }
+
+    /**
+     * Generate a NXDOMAIN Response.
+     * @return
+     */
+    public Message constructNXDomainResponse(Message request) {
+        Header respHeader = new Header();
+        respHeader.setFlag(Flags.QR);
+        if(state.get().recursive) respHeader.setFlag(Flags.RA);
+        if(request.getHeader().getFlag(Flags.RD)) respHeader.setFlag(Flags.RD);
+        respHeader.setID(request.getHeader().getID());
+        respHeader.setRcode(Rcode.NXDOMAIN);
+        respHeader.setOpcode(Opcode.QUERY);
+
+        Message response = new Message();
+        response.setHeader(respHeader);
+        response.addRecord(request.getQuestion(), Section.QUESTION);
+
+        return response;
+    }
+
+    public Message constructResponse(Message request, List<Record> records) {
+        Header respHeader = new Header();
+        respHeader.setFlag(Flags.QR);
+        if(state.get().recursive) respHeader.setFlag(Flags.RA);
+        if(request.getHeader().getFlag(Flags.RD)) respHeader.setFlag(Flags.RD);
+        respHeader.setID(request.getHeader().getID());
+        respHeader.setRcode(Rcode.NOERROR);
+
+        Message response = new Message();
+        response.setHeader(respHeader);
+        response.addRecord(request.getQuestion(), Section.QUESTION);
+        for(Record r : records) response.addRecord(r, Section.ANSWER);
+
+        return response;
+    }
+}
@@ -0,0 +1,122 @@
+package main.com.pyratron.pugmatt.bedrockconnect.dns;
+
+import org.xbill.DNS.Name;
+
+import java.net.Inet4Address;
+import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counters of the DNS server, exposed as a CHAOS TXT record.
+ *
+ * Query <code>stats.bedrockconnect.</code> class CH, type TXT from an allowed address to read them,
+ * e.g. <code>dig @127.0.0.1 CH TXT stats.bedrockconnect.</code>
+ */
+public class DNSStats {
+    /**
+     * Packets read from and written to the UDP socket by the application.
+     */
+    public final LongAdder udpReceived = new LongAdder();
+    public final LongAdder udpSent = new LongAdder();
+    /**
+     * Last sample of the kernel's counters for the UDP socket. See {@link KernelUdpStats}.
+     */
+    public final AtomicLong kernelDrops = new AtomicLong();
+    public final AtomicLong kernelRxQueue = new AtomicLong();
+    public final AtomicLong kernelTxQueue = new AtomicLong();
+
+    public final LongAdder queries = new LongAdder();
+    public final LongAdder local = new LongAdder();
+    public final LongAdder emptyZone = new LongAdder();
+    public final LongAdder blocked = new LongAdder();
+    public final LongAdder cacheHits = new LongAdder();
+    public final LongAdder upstream = new LongAdder();
+    public final LongAdder nxdomain = new LongAdder();
+    public final LongAdder transfers = new LongAdder();
+    public final LongAdder notifies = new LongAdder();
+
+    /**
+     * Number of keys kept by each top-K tracker.
+     */
+    private static final int TOP_SIZE = 10;
+    /**
+     * Most queried names.
+     */
+    public final HeavyHitters<Name> topNames = new HeavyHitters<>(TOP_SIZE);
+    /**
+     * Clients sending the most queries, by /24 for IPv4 and /48 for IPv6. See {@link #clientPrefix(InetAddress)}.
+     */
+    public final HeavyHitters.OfLong topClients = new HeavyHitters.OfLong(TOP_SIZE);
+    /**
+     * Names most often resolved upstream, i.e. missing from the cache.
+     */
+    public final HeavyHitters<Name> topMisses = new HeavyHitters<>(TOP_SIZE);
+
+    /**
+     * Halve the counts of the top-K trackers, so they follow recent traffic.
+     */
+    public void decay() {
+        topNames.decay();
+        topClients.decay();
+        topMisses.decay();
+    }
+
+    /**
+     * Reduce a client address to its network prefix: /24 for IPv4, /48 for IPv6.
+     * IPv6 prefixes have the top bit set, so the two families never collide.
+     * @param address The client address.
+     * @return The prefix, packed in a long.
+     */
+    public static long clientPrefix(InetAddress address) {
+        byte[] bytes = address.getAddress();
+        if(address instanceof Inet4Address) {
+            return (bytes[0] & 0xFFL) << 16 | (bytes[1] & 0xFFL) << 8 | (bytes[2] & 0xFFL);
+        }
+        long prefix = 1L << 63;
+        for(int i = 0; i < 6; i++) prefix |= (bytes[i] & 0xFFL) << (40 - i * 8);
+        return prefix;
+    }
+
+    private static String formatPrefix(long prefix) {
+        if(prefix >= 0) {
+            return String.format("%d.%d.%d.0/24", prefix >>> 16 & 0xFF, prefix >>> 8 & 0xFF, prefix & 0xFF);
+        }
+        return String.format("%x:%x:%x::/48", prefix >>> 32 & 0xFFFF, prefix >>> 16 & 0xFFFF, prefix & 0xFFFF);
+    }
+
+    /**
+     * Keep a string within the 255 characters allowed in a TXT record.
+     */
+    private static String truncate(String s) {
+        return s.length() <= 255 ? s : s.substring(0, 255);
+    }
+
+    /**
+     * @return One <code>name=value</code> string per counter, then one string per top-K entry.
+     */
+    public List<String> toStrings() {
+        List<String> strings = new ArrayList<>();
+        strings.add("udp-received=" + udpReceived.sum());
+        strings.add("udp-sent=" + udpSent.sum());
+        strings.add("udp-kernel-drops=" + kernelDrops.get());
+        strings.add("udp-rx-queue=" + kernelRxQueue.get());
+        strings.add("udp-tx-queue=" + kernelTxQueue.get());
+        strings.add("queries=" + queries.sum());
+        strings.add("local=" + local.sum());
+        strings.add("empty-zone=" + emptyZone.sum());
+        strings.add("blocked=" + blocked.sum());
+        strings.add("cache-hits=" + cacheHits.sum());
+        strings.add("upstream=" + upstream.sum());
+        strings.add("nxdomain=" + nxdomain.sum());
+        strings.add("transfers=" + transfers.sum());
+        strings.add("notifies=" + notifies.sum());
+        for(Map.Entry<Name, Long> e : topNames.top()) strings.add(truncate("top-name " + e.getKey() + " " + e.getValue()));
+        for(Map.Entry<Long, Long> e : topClients.top()) strings.add("top-client " + formatPrefix(e.getKey()) + " " + e.getValue());
+        for(Map.Entry<Name, Long> e : topMisses.top()) strings.add(truncate("top-miss " + e.getKey() + " " + e.getValue()));
+        return strings;
+    }
+}
@@ -0,0 +1,110 @@
+package main.com.pyratron.pugmatt.bedrockconnect.dns;
+
+import org.xbill.DNS.*;
+import org.xbill.DNS.Record;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Locally served empty zones for private-use and special-use names, as per RFC 6303.
+ *
+ * Reverse zones of private and link-local ranges, <code>home.arpa.</code> (RFC 8375) and
+ * <code>local.</code> (RFC 6762) never resolve on the public Internet, so queries for them are
+ * answered authoritatively here instead of being sent upstream.
+ */
+public class EmptyZones {
+    private static final long TTL = 10800;
+
+    private final List<Name> zones = new ArrayList<>();
+    private final Map<Name, Integer> index = new HashMap<>();
+    /**
+     * Label count of the deepest zone, including the root label. Longer suffixes of a name can not be a zone.
+     */
+    private int maxLabels = 0;
+    private final List<SOARecord> soas = new ArrayList<>();
+    private final List<NSRecord> nameservers = new ArrayList<>();
+
+    public EmptyZones() {
+        add("10.in-addr.arpa.");
+        for(int i = 16; i <= 31; i++) add(i + ".172.in-addr.arpa.");
+        add("168.192.in-addr.arpa.");
+        for(int i = 64; i <= 127; i++) add(i + ".100.in-addr.arpa."); // RFC 6598 shared address space
+        add("0.in-addr.arpa.");
+        add("127.in-addr.arpa.");
+        add("254.169.in-addr.arpa.");
+        add("2.0.192.in-addr.arpa.");
+        add("100.51.198.in-addr.arpa.");
+        add("113.0.203.in-addr.arpa.");
+        add("255.255.255.255.in-addr.arpa.");
+        add(repeat("0.", 32) + "ip6.arpa.");
+        add("1." + repeat("0.", 31) + "ip6.arpa.");
+        add("d.f.ip6.arpa.");
+        add("8.e.f.ip6.arpa.");
+        add("9.e.f.ip6.arpa.");
+        add("a.e.f.ip6.arpa.");
+        add("b.e.f.ip6.arpa.");
+        add("8.b.d.0.1.0.0.2.ip6.arpa.");
+        add("home.arpa.");
+        add("local.");
+    }
+
+    private void add(String zone) {
+        Name name = Name.fromConstantString(zone);
+        index.put(name, zones.size());
+        zones.add(name);
+        maxLabels = Math.max(maxLabels, name.labels());
+        soas.add(new SOARecord(name, DClass.IN, TTL, name, Name.fromConstantString("nobody.invalid."),
+            1, 604800, 86400, 2419200, TTL));
+        nameservers.add(new NSRecord(name, DClass.IN, TTL, name));
+    }
+
+    private static String repeat(String s, int times) {
+        StringBuilder sb = new StringBuilder();
+        for(int i = 0; i < times; i++) sb.append(s);
+        return sb.toString();
+    }
+
+    /**
+     * Find the empty zone a name belongs to, by looking up each of its suffixes.
+     * @param name The name.
+     * @return Index of the zone, or -1 if the name is not in any of them.
+     */
+    public int find(Name name) {
+        int labels = name.labels();
+        for(int i = Math.max(0, labels - maxLabels); i < labels - 1; i++) {
+            Integer zone = index.get(i == 0 ? name : new Name(name, i));
+            if(zone != null) return zone;
+        }
+        return -1;
+    }
+
+    /**
+     * Answer a query within an empty zone: the SOA or NS at the apex, NODATA for other types
+     * at the apex, and NXDOMAIN below it. Negative answers carry the SOA.
+     * @param request The query.
+     * @param zone Index of the zone, from {@link #find(Name)}.
+     * @return The authoritative response.
+     */
+    public Message answer(Message request, int zone) {
+        Record question = request.getQuestion();
+        Message response = new Message(request.getHeader().getID());
+        response.getHeader().setFlag(Flags.QR);
+        response.getHeader().setFlag(Flags.AA);
+        if(request.getHeader().getFlag(Flags.RD)) response.getHeader().setFlag(Flags.RD);
+        response.addRecord(question, Section.QUESTION);
+
+        boolean apex = question.getName().equals(zones.get(zone));
+        if(apex && question.getType() == Type.SOA) {
+            response.addRecord(soas.get(zone), Section.ANSWER);
+        } else if(apex && question.getType() == Type.NS) {
+            response.addRecord(nameservers.get(zone), Section.ANSWER);
+        } else {
+            if(!apex) response.getHeader().setRcode(Rcode.NXDOMAIN);
+            response.addRecord(soas.get(zone), Section.AUTHORITY);
+        }
+        return response;
+    }
+}
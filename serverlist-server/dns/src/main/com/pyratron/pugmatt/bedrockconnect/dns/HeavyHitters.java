@@ -0,0 +1,197 @@
+package main.com.pyratron.pugmatt.bedrockconnect.dns;
+
+import java.util.*;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * Approximate top-K of a stream of keys, in bounded memory.
+ *
+ * Every key is counted in a count-min sketch of {@link #DEPTH} rows of {@link #WIDTH} counters.
+ * A small min-heap keeps the keys with the highest estimates. Keys already in the heap and keys below
+ * the smallest estimate in a full heap only touch the sketch, so the common case takes no lock.
+ * The estimates in the heap are read back from the sketch lazily, when a new key competes for a place
+ * and in {@link #top()} and {@link #decay()}.
+ * {@link #decay()} halves all counts, so the top reflects recent traffic.
+ * @param <K> Type of the keys. Must have a well spread hashCode.
+ */
+public class HeavyHitters<K> {
+    private static final int DEPTH = 4;
+    private static final int WIDTH = 2048; // Power of two.
+
+    private final AtomicIntegerArray counts = new AtomicIntegerArray(DEPTH * WIDTH);
+    private final int capacity;
+    private final PriorityQueue<Entry<K>> heap = new PriorityQueue<>(Comparator.comparingLong(e -> e.count));
+    /**
+     * Hashes of the keys in the heap, replaced as a whole on every change.
+     */
+    private volatile long[] tracked = new long[0];
+    /**
+     * Smallest estimate in the heap once it is full, 0 before. May lag behind the sketch.
+     */
+    private volatile long threshold = 0;
+
+    private static class Entry<K> {
+        final K key;
+        final long hash;
+        long count;
+
+        Entry(K key, long hash, long count) {
+            this.key = key;
+            this.hash = hash;
+            this.count = count;
+        }
+    }
+
+    /**
+     * @param capacity Number of top keys to keep.
+     */
+    public HeavyHitters(int capacity) {
+        this.capacity = capacity;
+    }
+
+    /**
+     * Count one occurrence of a key.
+     * @param key The key.
+     */
+    public void add(K key) {
+        long hash = mix(key.hashCode());
+        long estimate = increment(hash);
+        if(estimate > threshold && !isTracked(hash)) offer(key, hash, estimate);
+    }
+
+    /**
+     * Top-K of long keys, which are only boxed when they enter the top.
+     */
+    public static class OfLong extends HeavyHitters<Long> {
+        public OfLong(int capacity) {
+            super(capacity);
+        }
+
+        /**
+         * Count one occurrence of a key.
+         * @param key The key.
+         */
+        public void add(long key) {
+            long hash = mix(Long.hashCode(key));
+            long estimate = increment(hash);
+            if(estimate > threshold() && !isTracked(hash)) offer(key, hash, estimate);
+        }
+    }
+
+    long threshold() {
+        return threshold;
+    }
+
+    /**
+     * Count a key in the sketch.
+     * @return The new estimate of the key.
+     */
+    long increment(long hash) {
+        int h1 = (int) hash;
+        int h2 = (int) (hash >>> 32) | 1;
+        int estimate = Integer.MAX_VALUE;
+        for(int row = 0; row < DEPTH; row++) {
+            int column = (h1 + row * h2) & (WIDTH - 1);
+            estimate = Math.min(estimate, counts.incrementAndGet(row * WIDTH + column));
+        }
+        return estimate;
+    }
+
+    private long estimate(long hash) {
+        int h1 = (int) hash;
+        int h2 = (int) (hash >>> 32) | 1;
+        int estimate = Integer.MAX_VALUE;
+        for(int row = 0; row < DEPTH; row++) {
+            int column = (h1 + row * h2) & (WIDTH - 1);
+            estimate = Math.min(estimate, counts.get(row * WIDTH + column));
+        }
+        return estimate;
+    }
+
+    boolean isTracked(long hash) {
+        for(long h : tracked) {
+            if(h == hash) return true;
+        }
+        return false;
+    }
+
+    synchronized void offer(K key, long hash, long estimate) {
+        if(isTracked(hash)) return;
+        if(heap.size() >= capacity) {
+            // Counts in the heap only grew since they were read, bring the smallest ones up to date first.
+            refreshHead();
+            if(estimate <= heap.peek().count) {
+                threshold = heap.peek().count;
+                return;
+            }
+            heap.poll();
+        }
+        heap.add(new Entry<>(key, hash, estimate));
+        published();
+    }
+
+    private void refreshHead() {
+        while(true) {
+            Entry<K> head = heap.peek();
+            long current = estimate(head.hash);
+            if(current == head.count) return;
+            heap.poll();
+            head.count = current;
+            heap.add(head);
+        }
+    }
+
+    /**
+     * Read every estimate in the heap back from the sketch, dropping keys that reached 0.
+     */
+    private void refreshAll() {
+        List<Entry<K>> kept = new ArrayList<>(heap);
+        heap.clear();
+        for(Entry<K> e : kept) {
+            e.count = estimate(e.hash);
+            if(e.count > 0) heap.add(e);
+        }
+        published();
+    }
+
+    private void published() {
+        long[] hashes = new long[heap.size()];
+        int i = 0;
+        for(Entry<K> e : heap) hashes[i++] = e.hash;
+        tracked = hashes;
+        threshold = heap.size() < capacity ? 0 : heap.peek().count;
+    }
+
+    /**
+     * Halve all counts.
+     */
+    public synchronized void decay() {
+        for(int i = 0; i < counts.length(); i++) {
+            counts.set(i, counts.get(i) >>> 1);
+        }
+        refreshAll();
+    }
+
+    /**
+     * @return The top keys with their estimated counts, highest first.
+     */
+    public synchronized List<Map.Entry<K, Long>> top() {
+        refreshAll();
+        List<Map.Entry<K, Long>> top = new ArrayList<>();
+        for(Entry<K> e : heap) top.add(new AbstractMap.SimpleImmutableEntry<>(e.key, e.count));
+        top.sort((a, b) -> Long.compare(b.getValue(), a.getValue()));
+        return top;
+    }
+
+    /**
+     * MurmurHash3 finalizer, to spread hash codes over both halves of a long.
+     */
+    private static long mix(long h) {
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+}
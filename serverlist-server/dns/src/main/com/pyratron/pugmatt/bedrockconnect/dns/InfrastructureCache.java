@@ -0,0 +1,216 @@
+package main.com.pyratron.pugmatt.bedrockconnect.dns;
+
+import org.xbill.DNS.Name;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.*;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.LongSupplier;
+
+/**
+ * Infrastructure cache used by the iterative resolver.
+ *
+ * Holds delegation data separately from answer caches: the NS set of each zone cut,
+ * addresses (glue) of nameservers, and a smoothed round trip time for every nameserver
+ * address that has been contacted.
+ */
+public class InfrastructureCache {
+    /**
+     * Longest time a delegation or glue entry is kept, regardless of its TTL.
+     */
+    private static final long MAX_TTL_SECONDS = 86400;
+    /**
+     * SRTT assigned to an address that timed out, in milliseconds.
+     */
+    private static final double TIMEOUT_PENALTY_MS = 2000;
+    /**
+     * Time after which the SRTT of a server that has not been contacted is halved, so slow servers get retried
+     * eventually. Decay depends on elapsed time only, not on how often servers are ranked.
+     */
+    private static final long DECAY_HALF_LIFE_NANOS = 60_000_000_000L;
+
+    private final Map<Name, Expiring<List<Name>>> zoneCuts;
+    private final Map<Name, Expiring<List<InetAddress>>> addresses;
+    private final Map<InetSocketAddress, Srtt> srtt;
+    private final LongSupplier clock;
+
+    /**
+     * Construct an infrastructure cache.
+     * @param maxEntries The maximum number of zone cuts, nameserver names and server addresses to keep each.
+     */
+    public InfrastructureCache(int maxEntries) {
+        this(maxEntries, System::nanoTime);
+    }
+
+    /**
+     * Construct an infrastructure cache with its own clock for SRTT decay.
+     * @param maxEntries The maximum number of zone cuts, nameserver names and server addresses to keep each.
+     * @param clock Source of the current time in nanoseconds.
+     */
+    InfrastructureCache(int maxEntries, LongSupplier clock) {
+        this.zoneCuts = lru(maxEntries);
+        this.addresses = lru(maxEntries);
+        this.srtt = lru(maxEntries);
+        this.clock = clock;
+    }
+
+    /**
+     * Store the NS set of a zone cut learned from a referral.
+     * @param zone The zone the nameservers are authoritative for.
+     * @param nameservers The NS targets.
+     * @param ttl TTL of the NS records in seconds.
+     */
+    public synchronized void putZoneCut(Name zone, List<Name> nameservers, long ttl) {
+        zoneCuts.put(zone, new Expiring<>(new ArrayList<>(nameservers), ttl));
+    }
+
+    /**
+     * Get the cached NS set of a zone.
+     * @param zone The zone.
+     * @return NS targets, or null if unknown or expired.
+     */
+    public synchronized List<Name> getZoneCut(Name zone) {
+        Expiring<List<Name>> entry = zoneCuts.get(zone);
+        if(entry == null) return null;
+        if(entry.expired()) {
+            zoneCuts.remove(zone);
+            return null;
+        }
+        return entry.value;
+    }
+
+    /**
+     * Find the deepest cached zone cut enclosing a name.
+     * @param name The name being resolved.
+     * @return The closest known zone, or the root if no delegation is cached.
+     */
+    public Name closestZone(Name name) {
+        int labels = name.labels();
+        for(int i = 0; i < labels - 1; i++) {
+            Name candidate = i == 0 ? name : new Name(name, i);
+            if(getZoneCut(candidate) != null) return candidate;
+        }
+        return Name.root;
+    }
+
+    /**
+     * Store an address of a nameserver.
+     * @param nameserver Name of the nameserver.
+     * @param address One of its addresses.
+     * @param ttl TTL of the address record in seconds.
+     */
+    public synchronized void putAddress(Name nameserver, InetAddress address, long ttl) {
+        Expiring<List<InetAddress>> entry = addresses.get(nameserver);
+        if(entry == null || entry.expired()) {
+            entry = new Expiring<>(new ArrayList<>(), ttl);
+            addresses.put(nameserver, entry);
+        }
+        if(!entry.value.contains(address)) entry.value.add(address);
+    }
+
+    /**
+     * Get the cached addresses of a nameserver.
+     * @param nameserver Name of the nameserver.
+     * @return A copy of its addresses, or an empty list if unknown.
+     */
+    public synchronized List<InetAddress> getAddresses(Name nameserver) {
+        Expiring<List<InetAddress>> entry = addresses.get(nameserver);
+        if(entry == null) return Collections.emptyList();
+        if(entry.expired()) {
+            addresses.remove(nameserver);
+            return Collections.emptyList();
+        }
+        return new ArrayList<>(entry.value);
+    }
+
+    /**
+     * Record a successful exchange with a nameserver.
+     * @param server The nameserver address.
+     * @param rttMillis Measured round trip time.
+     */
+    public synchronized void reportRtt(InetSocketAddress server, double rttMillis) {
+        double old = current(server);
+        srtt.put(server, new Srtt(old < 0 ? rttMillis : old * 0.7 + rttMillis * 0.3, clock.getAsLong()));
+    }
+
+    /**
+     * Record a timeout or unusable answer from a nameserver.
+     * @param server The nameserver address.
+     */
+    public synchronized void reportTimeout(InetSocketAddress server) {
+        double old = current(server);
+        srtt.put(server, new Srtt(old < 0 ? TIMEOUT_PENALTY_MS : Math.max(old * 2, TIMEOUT_PENALTY_MS), clock.getAsLong()));
+    }
+
+    /**
+     * Order candidate servers by smoothed RTT, fastest first.
+     * Servers never contacted get a small random SRTT so that each of them is tried early.
+     * @param servers Candidate addresses.
+     * @return A new list sorted by SRTT.
+     */
+    public synchronized List<InetSocketAddress> rank(Collection<InetSocketAddress> servers) {
+        Map<InetSocketAddress, Double> current = new HashMap<>();
+        for(InetSocketAddress server : servers) {
+            double value = current(server);
+            if(value < 0) {
+                value = ThreadLocalRandom.current().nextDouble(0, 5);
+                srtt.put(server, new Srtt(value, clock.getAsLong()));
+            }
+            current.put(server, value);
+        }
+        List<InetSocketAddress> ranked = new ArrayList<>(current.keySet());
+        ranked.sort(Comparator.comparingDouble(current::get));
+        return ranked;
+    }
+
+    /**
+     * Get the smoothed RTT of a nameserver.
+     * @param server The nameserver address.
+     * @return SRTT in milliseconds, decayed by the time since it was last measured, or -1 if the server was never ranked.
+     */
+    public synchronized double getSrtt(InetSocketAddress server) {
+        return current(server);
+    }
+
+    private double current(InetSocketAddress server) {
+        Srtt entry = srtt.get(server);
+        if(entry == null) return -1;
+        long elapsed = clock.getAsLong() - entry.measuredAt;
+        if(elapsed <= 0) return entry.value;
+        return entry.value * Math.pow(0.5, (double) elapsed / DECAY_HALF_LIFE_NANOS);
+    }
+
+    private static <K, V> Map<K, V> lru(int maxEntries) {
+        return new LinkedHashMap<K, V>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<K, V> eldest) {
+                return size() > maxEntries;
+            }
+        };
+    }
+
+    private static class Srtt {
+        final double value;
+        final long measuredAt;
+
+        Srtt(double value, long measuredAt) {
+            this.value = value;
+            this.measuredAt = measuredAt;
+        }
+    }
+
+    private static class Expiring<T> {
+        final T value;
+        final long expireAt;
+
+        Expiring(T value, long ttl) {
+            this.value = value;
+            this.expireAt = System.nanoTime() + Math.min(ttl, MAX_TTL_SECONDS) * 1_000_000_000L;
+        }
+
+        boolean expired() {
+            return System.nanoTime() - expireAt > 0;
+        }
+    }
+}
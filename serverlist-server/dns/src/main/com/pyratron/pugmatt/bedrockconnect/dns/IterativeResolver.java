@@ -0,0 +1,252 @@
+package main.com.pyratron.pugmatt.bedrockconnect.dns;
+
+import org.xbill.DNS.*;
+import org.xbill.DNS.Record;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.time.Duration;
+import java.util.*;
+
+/**
+ * Resolves names by walking the delegation tree from the root hints, without a third-party recursive server.
+ *
+ * Delegations, glue and nameserver RTTs are kept in an {@link InfrastructureCache}.
+ * Nameservers are always contacted on the same port, which allows a hierarchy of stub
+ * authoritative servers on loopback (e.g. 127.0.0.2, 127.0.0.3, ... all on port 5353) to be used for testing.
+ * Only IPv4 nameserver addresses are used.
+ */
+public class IterativeResolver {
+    /**
+     * IPv4 addresses of a.root-servers.net to m.root-servers.net.
+     */
+    private static final String[] DEFAULT_ROOT_HINTS = {
+        "198.41.0.4", "170.247.170.2", "192.33.4.12", "199.7.91.13", "192.203.230.10", "192.5.5.241",
+        "192.112.36.4", "198.97.190.53", "192.36.148.17", "192.58.128.30", "193.0.14.129", "199.7.83.42",
+        "202.12.27.33"
+    };
+
+    private static final int MAX_REFERRALS = 16;
+    private static final int MAX_CNAME_CHAIN = 8;
+    private static final int MAX_DEPTH = 4;
+    private static final int MAX_SERVER_TRIES = 3;
+    private static final int MAX_NS_LOOKUPS = 2;
+
+    private final List<InetSocketAddress> rootHints;
+    private final int nsPort;
+    private final InfrastructureCache infra;
+    private Duration timeout = Duration.ofMillis(1500);
+
+    /**
+     * Construct an iterative resolver using the public root servers.
+     */
+    public IterativeResolver() {
+        this(defaultRootHints(), 53, 10000);
+    }
+
+    /**
+     * Construct an iterative resolver.
+     * @param rootHints Addresses of the root nameservers, including port.
+     * @param nsPort The port to contact delegated nameservers on.
+     * @param infraSize The maximum number of entries of each kind in the infrastructure cache.
+     */
+    public IterativeResolver(List<InetSocketAddress> rootHints, int nsPort, int infraSize) {
+        if(rootHints.isEmpty()) throw new IllegalArgumentException("At least one root hint is required");
+        this.rootHints = new ArrayList<>(rootHints);
+        this.nsPort = nsPort;
+        this.infra = new InfrastructureCache(infraSize);
+    }
+
+    /**
+     * Set the timeout of a single query to a nameserver.
+     * @param timeout The timeout.
+     */
+    public void setTimeout(Duration timeout) {
+        this.timeout = timeout;
+    }
+
+    public InfrastructureCache getInfrastructureCache() {
+        return infra;
+    }
+
+    /**
+     * Resolve a name iteratively, following CNAME chains.
+     * @param name The name to resolve.
+     * @param type The record type, e.g. Type.A
+     * @return Answer records including any CNAMEs followed. Empty if the name does not exist or resolution failed.
+     */
+    public List<Record> resolve(Name name, int type) {
+        List<Record> answers = new ArrayList<>();
+        Name qname = name;
+        for(int chain = 0; chain < MAX_CNAME_CHAIN; chain++) {
+            Message response = query(qname, type, 0);
+            if(response == null || response.getRcode() != Rcode.NOERROR) return answers;
+
+            // Walk the chain as far as this response allows.
+            List<Record> section = response.getSection(Section.ANSWER);
+            boolean progressed = true;
+            while(progressed) {
+                progressed = false;
+                for(Record r : section) {
+                    if(!r.getName().equals(qname)) continue;
+                    if(r.getType() == type) {
+                        answers.add(r);
+                    } else if(r.getType() == Type.CNAME && !answers.contains(r)) {
+                        answers.add(r);
+                        qname = ((CNAMERecord) r).getTarget();
+                        progressed = true;
+                        break;
+                    }
+                }
+            }
+
+            boolean complete = false;
+            for(Record r : answers) {
+                if(r.getType() == type && r.getName().equals(qname)) {
+                    complete = true;
+                    break;
+                }
+            }
+            if(complete || type == Type.CNAME || section.isEmpty()) return answers;
+        }
+        return answers;
+    }
+
+    /**
+     * Query the nameservers authoritative for a name, following referrals.
+     * @param qname The name.
+     * @param type The record type.
+     * @param depth Nesting level of nameserver address lookups.
+     * @return The authoritative (or final) response, or null if resolution failed.
+     */
+    private Message query(Name qname, int type, int depth) {
+        if(depth > MAX_DEPTH) return null;
+
+        Name zone = infra.closestZone(qname);
+        for(int step = 0; step < MAX_REFERRALS; step++) {
+            List<InetSocketAddress> servers = serversFor(zone, depth);
+            if(servers.isEmpty()) return null;
+
+            Message response = null;
+            int tries = 0;
+            for(InetSocketAddress server : infra.rank(servers)) {
+                if(tries++ >= MAX_SERVER_TRIES) break;
+                response = send(server, qname, type);
+                if(response != null) break;
+            }
+            if(response == null) return null;
+
+            if(response.getRcode() == Rcode.NXDOMAIN
+                || !response.getSection(Section.ANSWER).isEmpty()
+                || response.getHeader().getFlag(Flags.AA)) {
+                return response;
+            }
+
+            // Referral: NS records in the authority section, for a zone below the current one.
+            Name cut = null;
+            long ttl = Long.MAX_VALUE;
+            List<Name> nameservers = new ArrayList<>();
+            for(Record r : response.getSection(Section.AUTHORITY)) {
+                if(r.getType() != Type.NS) continue;
+                if(cut == null) cut = r.getName();
+                if(!r.getName().equals(cut)) continue;
+                nameservers.add(((NSRecord) r).getTarget());
+                ttl = Math.min(ttl, r.getTTL());
+            }
+            if(cut == null || cut.equals(zone) || !cut.subdomain(zone) || !qname.subdomain(cut)) {
+                // Lame or NODATA without AA. Nothing more to follow.
+                return response;
+            }
+
+            infra.putZoneCut(cut, nameservers, ttl);
+            for(Record r : response.getSection(Section.ADDITIONAL)) {
+                // Only accept glue within the bailiwick of the server that sent it.
+                if(r.getType() == Type.A && nameservers.contains(r.getName()) && r.getName().subdomain(zone)) {
+                    infra.putAddress(r.getName(), ((ARecord) r).getAddress(), r.getTTL());
+                }
+            }
+            zone = cut;
+        }
+        return null;
+    }
+
+    /**
+     * Get the addresses of the nameservers of a zone, resolving NS names without glue if needed.
+     * @param zone The zone.
+     * @param depth Nesting level of nameserver address lookups.
+     * @return Nameserver addresses, possibly empty.
+     */
+    private List<InetSocketAddress> serversFor(Name zone, int depth) {
+        if(zone.equals(Name.root)) return rootHints;
+
+        List<Name> nameservers = infra.getZoneCut(zone);
+        if(nameservers == null) return Collections.emptyList();
+
+        Set<InetSocketAddress> servers = new LinkedHashSet<>();
+        for(Name ns : nameservers) {
+            for(InetAddress address : infra.getAddresses(ns)) {
+                servers.add(new InetSocketAddress(address, nsPort));
+            }
+        }
+        if(!servers.isEmpty()) return new ArrayList<>(servers);
+
+        // No glue. Resolve the nameserver names themselves.
+        int lookups = 0;
+        for(Name ns : nameservers) {
+            if(lookups++ >= MAX_NS_LOOKUPS) break;
+            Message response = query(ns, Type.A, depth + 1);
+            if(response == null) continue;
+            for(Record r : response.getSection(Section.ANSWER)) {
+                if(r.getType() != Type.A) continue;
+                InetAddress address = ((ARecord) r).getAddress();
+                infra.putAddress(ns, address, r.getTTL());
+                servers.add(new InetSocketAddress(address, nsPort));
+            }
+            if(!servers.isEmpty()) break;
+        }
+        return new ArrayList<>(servers);
+    }
+
+    /**
+     * Send a single non-recursive query to a nameserver, and update its RTT.
+     * @param server The nameserver.
+     * @param qname The name.
+     * @param type The record type.
+     * @return The response, or null if the server did not give a usable one.
+     */
+    private Message send(InetSocketAddress server, Name qname, int type) {
+        Message query = Message.newQuery(Record.newRecord(qname, type, DClass.IN));
+        query.getHeader().unsetFlag(Flags.RD);
+
+        SimpleResolver resolver = new SimpleResolver(server);
+        resolver.setTimeout(timeout);
+
+        long start = System.nanoTime();
+        try {
+            Message response = resolver.send(query);
+            int rcode = response.getRcode();
+            if(rcode != Rcode.NOERROR && rcode != Rcode.NXDOMAIN) {
+                infra.reportTimeout(server);
+                return null;
+            }
+            infra.reportRtt(server, (System.nanoTime() - start) / 1_000_000.0);
+            return response;
+        } catch (IOException e) {
+            infra.reportTimeout(server);
+            return null;
+        }
+    }
+
+    /**
+     * The built-in root hints.
+     * @return Addresses of the public root servers on port 53.
+     */
+    public static List<InetSocketAddress> defaultRootHints() {
+        List<InetSocketAddress> hints = new ArrayList<>();
+        for(String ip : DEFAULT_ROOT_HINTS) {
+            hints.add(new InetSocketAddress(ip, 53));
+        }
+        return hints;
+    }
+}
@@ -0,0 +1,111 @@
+package main.com.pyratron.pugmatt.bedrockconnect.dns;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Reads the kernel's counters of UDP sockets from <code>/proc/net/udp</code> and <code>/proc/net/udp6</code>.
+ *
+ * Packets dropped because the receive buffer was full never reach the application, so these
+ * counters are the only way to see them. The tables list the sockets of every process, so rows are matched
+ * to this process's own sockets by inode, from <code>/proc/self/fd</code>. Only available on Linux.
+ */
+public class KernelUdpStats {
+    private static final File[] TABLES = { new File("/proc/net/udp"), new File("/proc/net/udp6") };
+    private static final Path OWN_FDS = Paths.get("/proc/self/fd");
+
+    /**
+     * Counters of this process's sockets bound to a port, summed over IPv4 and IPv6.
+     */
+    public static class Sample {
+        /**
+         * Packets dropped since the sockets were created.
+         */
+        public long drops;
+        /**
+         * Bytes waiting to be read by the application.
+         */
+        public long rxQueue;
+        /**
+         * Bytes waiting to be sent.
+         */
+        public long txQueue;
+        /**
+         * Number of sockets found.
+         */
+        public int sockets;
+    }
+
+    /**
+     * @return Whether the kernel tables can be read on this system.
+     */
+    public static boolean isAvailable() {
+        return TABLES[0].canRead() && Files.isReadable(OWN_FDS);
+    }
+
+    /**
+     * Sample the counters of this process's UDP sockets bound to a local port. Sockets of other processes
+     * on the same port, e.g. with SO_REUSEPORT, are not counted.
+     * @param port The local port.
+     * @return The summed counters. No sockets found if the tables are not available.
+     */
+    public static Sample sample(int port) {
+        Sample sample = new Sample();
+        Set<String> inodes = ownSocketInodes();
+        if(inodes.isEmpty()) return sample;
+        for(File table : TABLES) {
+            if(!table.canRead()) continue;
+            try (BufferedReader reader = new BufferedReader(new FileReader(table))) {
+                reader.readLine(); // Header
+                String line;
+                while((line = reader.readLine()) != null) {
+                    // sl local_address rem_address st tx_queue:rx_queue tr:tm->when retrnsmt uid timeout inode ref pointer drops
+                    String[] fields = line.trim().split("\\s+");
+                    if(fields.length < 13) continue;
+                    String local = fields[1];
+                    int localPort = Integer.parseInt(local.substring(local.indexOf(':') + 1), 16);
+                    if(localPort != port || !inodes.contains(fields[9])) continue;
+                    String[] queues = fields[4].split(":");
+                    sample.txQueue += Long.parseLong(queues[0], 16);
+                    sample.rxQueue += Long.parseLong(queues[1], 16);
+                    sample.drops += Long.parseLong(fields[12]);
+                    sample.sockets++;
+                }
+            } catch (IOException | RuntimeException e) {
+                System.out.println("Unable to read " + table + ": " + e.getMessage());
+            }
+        }
+        return sample;
+    }
+
+    /**
+     * @return Inodes of the sockets this process has open, as they appear in the tables.
+     */
+    private static Set<String> ownSocketInodes() {
+        Set<String> inodes = new HashSet<>();
+        try (DirectoryStream<Path> fds = Files.newDirectoryStream(OWN_FDS)) {
+            for(Path fd : fds) {
+                String target;
+                try {
+                    target = Files.readSymbolicLink(fd).toString();
+                } catch (IOException e) {
+                    continue; // Closed while listing.
+                }
+                // socket:[12345]
+                if(target.startsWith("socket:[") && target.endsWith("]"))
+                    inodes.add(target.substring(8, target.length() - 1));
+            }
+        } catch (IOException e) {
+            System.out.println("Unable to read " + OWN_FDS + ": " + e.getMessage());
+        }
+        return inodes;
+    }
+}
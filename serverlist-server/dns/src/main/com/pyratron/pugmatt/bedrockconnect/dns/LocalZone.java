@@ -0,0 +1,213 @@
+package main.com.pyratron.pugmatt.bedrockconnect.dns;
+
+import org.xbill.DNS.*;
+import org.xbill.DNS.Record;
+
+import java.util.*;
+
+/**
+ * A zone of local entries, which can be transferred to other DNS nodes with AXFR and IXFR.
+ *
+ * Every change increases the serial and is kept in a journal, so secondaries only need to
+ * transfer the changes they have not seen yet.
+ */
+public class LocalZone {
+    /**
+     * Number of changes kept for IXFR. Older secondaries fall back to a full transfer.
+     */
+    private static final int JOURNAL_SIZE = 100;
+    /**
+     * Refresh interval advertised in the SOA, and used by secondaries, in seconds.
+     */
+    public static final int REFRESH = 60;
+
+    private final Name origin;
+    private Name admin;
+    private long serial = 0;
+    private final Map<DNSKey, List<Record>> rrsets = new LinkedHashMap<>();
+    private final Deque<Delta> journal = new ArrayDeque<>();
+
+    /**
+     * A change between two serials of a zone.
+     */
+    public static class Delta {
+        public final long from;
+        public final long to;
+        public final List<Record> deletes;
+        public final List<Record> adds;
+
+        Delta(long from, long to, List<Record> deletes, List<Record> adds) {
+            this.from = from;
+            this.to = to;
+            this.deletes = deletes;
+            this.adds = adds;
+        }
+    }
+
+    /**
+     * Construct an empty zone. Its serial is 0 until something is put in it or it is loaded.
+     * @param origin The apex of the zone.
+     */
+    LocalZone(Name origin) {
+        this.origin = origin;
+        try {
+            this.admin = new Name("hostmaster", origin);
+        } catch (TextParseException e) {
+            this.admin = origin;
+        }
+    }
+
+    public Name getOrigin() {
+        return origin;
+    }
+
+    public synchronized long getSerial() {
+        return serial;
+    }
+
+    /**
+     * @return The SOA record of the zone at its current serial.
+     */
+    public synchronized SOARecord getSOA() {
+        return new SOARecord(origin, DClass.IN, REFRESH, origin, admin, serial, REFRESH, REFRESH / 2, 86400, REFRESH);
+    }
+
+    /**
+     * @return A copy of all RRsets in the zone.
+     */
+    public synchronized Map<DNSKey, List<Record>> getRRsets() {
+        Map<DNSKey, List<Record>> copy = new LinkedHashMap<>();
+        for(Map.Entry<DNSKey, List<Record>> e : rrsets.entrySet()) {
+            copy.put(e.getKey(), new ArrayList<>(e.getValue()));
+        }
+        return copy;
+    }
+
+    /**
+     * @return All records in the zone, without the SOA.
+     */
+    public synchronized List<Record> getRecords() {
+        List<Record> records = new ArrayList<>();
+        for(List<Record> rrset : rrsets.values()) records.addAll(rrset);
+        return records;
+    }
+
+    /**
+     * Replace an RRset, as a new version of the zone.
+     * @param key Name and type of the RRset.
+     * @param records The new records. An empty list removes the RRset.
+     */
+    public synchronized void put(DNSKey key, List<Record> records) {
+        List<Record> old = rrsets.get(key);
+        List<Record> deletes = old == null ? new ArrayList<>() : new ArrayList<>(old);
+        List<Record> adds = new ArrayList<>(records);
+        if(deletes.equals(adds)) return;
+
+        if(records.isEmpty()) rrsets.remove(key);
+        else rrsets.put(key, new ArrayList<>(records));
+
+        // Serials are seconds since epoch where possible, so a restarted primary is still ahead of its secondaries.
+        long next = Math.max(serial + 1, System.currentTimeMillis() / 1000) & 0xFFFFFFFFL;
+        record(new Delta(serial, next, deletes, adds));
+        serial = next;
+    }
+
+    /**
+     * Replace the whole zone, from a full transfer.
+     * @param serial The serial of the transferred zone.
+     * @param records The records of the zone. SOA records are skipped.
+     */
+    public synchronized void load(long serial, List<Record> records) {
+        rrsets.clear();
+        for(Record r : records) {
+            if(r.getType() == Type.SOA) continue;
+            rrsets.computeIfAbsent(new DNSKey(r.getType(), r.getName()), k -> new ArrayList<>()).add(r);
+        }
+        journal.clear();
+        this.serial = serial;
+    }
+
+    /**
+     * Replace the whole zone with the content, serial and journal of another copy, e.g. after a reload.
+     * @param other The copy.
+     */
+    public void copyFrom(LocalZone other) {
+        Map<DNSKey, List<Record>> content;
+        List<Delta> changes;
+        long otherSerial;
+        synchronized (other) {
+            content = other.getRRsets();
+            changes = new ArrayList<>(other.journal);
+            otherSerial = other.serial;
+        }
+        synchronized (this) {
+            rrsets.clear();
+            rrsets.putAll(content);
+            journal.clear();
+            journal.addAll(changes);
+            serial = otherSerial;
+        }
+    }
+
+    /**
+     * Apply an incremental change, from an incremental transfer.
+     * SOA records in <code>deletes</code> and <code>adds</code> are skipped, and so are added records the zone already has.
+     * @return False if the change does not start at the current serial, and was not applied.
+     */
+    public synchronized boolean apply(long from, long to, List<Record> deletes, List<Record> adds) {
+        if(from != serial) return false;
+        List<Record> deleted = new ArrayList<>();
+        List<Record> added = new ArrayList<>();
+        for(Record r : deletes) {
+            if(r.getType() == Type.SOA) continue;
+            DNSKey key = new DNSKey(r.getType(), r.getName());
+            List<Record> rrset = rrsets.get(key);
+            if(rrset != null && rrset.remove(r)) {
+                deleted.add(r);
+                if(rrset.isEmpty()) rrsets.remove(key);
+            }
+        }
+        for(Record r : adds) {
+            if(r.getType() == Type.SOA) continue;
+            List<Record> rrset = rrsets.computeIfAbsent(new DNSKey(r.getType(), r.getName()), k -> new ArrayList<>());
+            if(rrset.contains(r)) continue;
+            rrset.add(r);
+            added.add(r);
+        }
+        record(new Delta(from, to, deleted, added));
+        serial = to;
+        return true;
+    }
+
+    /**
+     * Get the changes needed to bring a copy of the zone at <code>from</code> up to date.
+     * @param from The serial of the copy.
+     * @return The changes in order, or null if the journal does not reach back to <code>from</code>.
+     */
+    public synchronized List<Delta> getDeltasSince(long from) {
+        List<Delta> deltas = new ArrayList<>();
+        long at = from;
+        for(Delta d : journal) {
+            if(deltas.isEmpty() && d.from != at) continue;
+            if(d.from != at) return null;
+            deltas.add(d);
+            at = d.to;
+        }
+        return at == serial ? deltas : null;
+    }
+
+    private void record(Delta delta) {
+        journal.addLast(delta);
+        while(journal.size() > JOURNAL_SIZE) journal.removeFirst();
+    }
+
+    /**
+     * The zone a local entry belongs to when none was declared: the last two labels of the name.
+     * @param name The name of the entry.
+     * @return The zone apex.
+     */
+    public static Name defaultOrigin(Name name) {
+        int labels = name.labels(); // Includes the root label.
+        return labels <= 3 ? name : new Name(name, labels - 3);
+    }
+}
@@ -0,0 +1,116 @@
+package main.com.pyratron.pugmatt.bedrockconnect.dns;
+
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetSocketAddress;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Minimal RakNet unconnected ping, as answered by every Bedrock server before a connection is made.
+ */
+public class RakNetPing {
+    private static final byte UNCONNECTED_PING = 0x01;
+    private static final byte UNCONNECTED_PONG = 0x1c;
+    private static final byte[] MAGIC = {
+        0x00, (byte) 0xff, (byte) 0xff, 0x00, (byte) 0xfe, (byte) 0xfe, (byte) 0xfe, (byte) 0xfe,
+        (byte) 0xfd, (byte) 0xfd, (byte) 0xfd, (byte) 0xfd, 0x12, 0x34, 0x56, 0x78
+    };
+
+    /**
+     * The answer of a server to a ping.
+     */
+    public static class Pong {
+        public final String motd;
+        public final int playerCount;
+        public final int maxPlayers;
+        public final long rttMillis;
+
+        Pong(String motd, int playerCount, int maxPlayers, long rttMillis) {
+            this.motd = motd;
+            this.playerCount = playerCount;
+            this.maxPlayers = maxPlayers;
+            this.rttMillis = rttMillis;
+        }
+
+        /**
+         * @return Share of the player slots in use, between 0 and 1. 0 if the server reports no limit.
+         */
+        public double getLoad() {
+            if(maxPlayers <= 0) return 0;
+            return Math.min(1, Math.max(0, playerCount / (double) maxPlayers));
+        }
+    }
+
+    /**
+     * Ping several servers at once, from a single socket.
+     * @param targets The servers.
+     * @param timeoutMillis How long to wait for answers.
+     * @return Answers by server. Servers that did not answer in time, or could not be sent a ping, are missing.
+     * @throws IOException When the socket cannot be opened.
+     */
+    public static Map<InetSocketAddress, Pong> pingAll(Collection<InetSocketAddress> targets, int timeoutMillis) throws IOException {
+        Map<InetSocketAddress, Pong> pongs = new HashMap<>();
+        if(targets.isEmpty()) return pongs;
+
+        long start = System.nanoTime();
+        long guid = ThreadLocalRandom.current().nextLong();
+        ByteBuffer ping = ByteBuffer.allocate(33);
+        ping.put(UNCONNECTED_PING).putLong(start).put(MAGIC).putLong(guid);
+        byte[] wire = ping.array();
+
+        try (DatagramSocket socket = new DatagramSocket()) {
+            for(InetSocketAddress target : targets) {
+                try {
+                    socket.send(new DatagramPacket(wire, wire.length, target));
+                } catch (IOException | IllegalArgumentException | SecurityException e) {
+                    // e.g. a broadcast address or an unreachable network. The other targets are still pinged.
+                }
+            }
+
+            long deadline = start + timeoutMillis * 1_000_000L;
+            byte[] buffer = new byte[1500];
+            while(pongs.size() < targets.size()) {
+                long remaining = (deadline - System.nanoTime()) / 1_000_000L;
+                if(remaining <= 0) break;
+                socket.setSoTimeout((int) remaining);
+                DatagramPacket packet = new DatagramPacket(buffer, buffer.length);
+                try {
+                    socket.receive(packet);
+                } catch (SocketTimeoutException e) {
+                    break;
+                }
+                InetSocketAddress from = (InetSocketAddress) packet.getSocketAddress();
+                if(!targets.contains(from)) continue;
+                Pong pong = parse(buffer, packet.getLength(), (System.nanoTime() - start) / 1_000_000L);
+                if(pong != null) pongs.put(from, pong);
+            }
+        }
+        return pongs;
+    }
+
+    /**
+     * Parse an unconnected pong, e.g. <code>MCPE;motd;protocol;version;players;max;...</code>
+     * @return The pong, or null if the packet is not a valid one.
+     */
+    private static Pong parse(byte[] data, int length, long rttMillis) {
+        // ID, time, server GUID, magic, string length.
+        if(length < 35 || data[0] != UNCONNECTED_PONG) return null;
+        for(int i = 0; i < MAGIC.length; i++) {
+            if(data[17 + i] != MAGIC[i]) return null;
+        }
+        int stringLength = (data[33] & 0xFF) << 8 | (data[34] & 0xFF);
+        if(35 + stringLength > length) return null;
+        String[] fields = new String(data, 35, stringLength, StandardCharsets.UTF_8).split(";");
+        if(fields.length < 6) return null;
+        try {
+            return new Pong(fields[1], Integer.parseInt(fields[4]), Integer.parseInt(fields[5]), rttMillis);
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,146 @@
+package main.com.pyratron.pugmatt.bedrockconnect.dns;
+
+import org.xbill.DNS.Cache;
+import org.xbill.DNS.Name;
+import org.xbill.DNS.Record;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Everything a {@link DNSResolver} answers from: local entries, pools, cache, upstream and filtering settings.
+ *
+ * The resolver holds its state in a single reference. A reload builds a new state in the background
+ * and swaps it in, while queries already running finish on the state they started with.
+ */
+class ResolverState {
+    final int cacheSize;
+    /**
+     * Whether or not to perform recusive queries.
+     * If false, server will return empty response to all non-local records.
+     */
+    volatile boolean recursive = true;
+
+    /**
+     * Locally stored DNS entries. Has priority.
+     * An index over the RRsets of all local zones.
+     */
+    final Map<DNSKey, List<Record>> localEntries = new ConcurrentHashMap<>();
+    /**
+     * Zones holding the local entries, by apex.
+     */
+    final Map<Name, LocalZone> localZones = new ConcurrentHashMap<>();
+    /**
+     * Local A and AAAA entries answered from a pool of health-checked servers.
+     */
+    final Map<DNSKey, AddressPool> pools = new ConcurrentHashMap<>();
+    /**
+     * Cached DNS answers, in wire format. Least recently used entries are removed when limit is exceeded.
+     */
+    final Map<DNSKey, CachedAnswer> cachedEntries;
+
+    /**
+     * A internal cache for the lookup process to use.
+     */
+    final Cache dnsCache = new Cache();
+
+    /**
+     * Resolver used for iterative mode. If null, lookups are forwarded to the system resolvers.
+     */
+    volatile IterativeResolver iterative = null;
+
+    /**
+     * Domains answered locally instead of being resolved. Checked after local entries and empty zones, before the cache.
+     */
+    volatile Blocklist blocklist = null;
+    /**
+     * Whether blocked A and AAAA queries get 0.0.0.0 and :: instead of NXDOMAIN.
+     */
+    volatile boolean blockWithNullAddress = false;
+
+    /**
+     * Private-use and special-use zones answered locally as per RFC 6303, or null to resolve them like other names.
+     * Checked after local entries, before the blocklist and the cache.
+     */
+    volatile EmptyZones emptyZones = new EmptyZones();
+
+    /**
+     * Requested SO_RCVBUF and SO_SNDBUF of the UDP socket in bytes, or 0 for the system default.
+     */
+    volatile int receiveBufferSize = 0;
+    volatile int sendBufferSize = 0;
+
+    ResolverState(int cacheSize) {
+        this.cacheSize = cacheSize;
+        this.cachedEntries = new LinkedHashMap<DNSKey, CachedAnswer>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<DNSKey, CachedAnswer> eldest) {
+                return size() > ResolverState.this.cacheSize;
+            }
+        };
+    }
+
+    /**
+     * Get a cached answer.
+     * @param key The entry to look up for.
+     * @return The cached answer, or null if there is none or it has expired.
+     */
+    CachedAnswer getCached(DNSKey key) {
+        synchronized (cachedEntries) {
+            CachedAnswer cached = cachedEntries.get(key);
+            if(cached != null && cached.expired()) {
+                cachedEntries.remove(key);
+                return null;
+            }
+            return cached;
+        }
+    }
+
+    /**
+     * Cache the result of a DNS lookup.
+     * The records are encoded once here, so cache hits only copy bytes.
+     * @param key The DNS entry.
+     * @param result A list of completed DNS records.
+     */
+    void cacheResult(DNSKey key, List<Record> result) {
+        CachedAnswer answer = new CachedAnswer(result);
+        synchronized (cachedEntries) {
+            cachedEntries.put(key, answer);
+        }
+    }
+
+    /**
+     * Take over the cached answers of a previous state, so a reload does not start with a cold cache.
+     * Answers for names that are now local or in an empty zone are dropped. The most recently used answers are kept
+     * if the new cache is smaller.
+     * @param previous The state being replaced.
+     */
+    void inheritCache(ResolverState previous) {
+        List<Map.Entry<DNSKey, CachedAnswer>> entries;
+        synchronized (previous.cachedEntries) {
+            entries = new ArrayList<>(previous.cachedEntries.entrySet());
+        }
+        EmptyZones empty = emptyZones;
+        synchronized (cachedEntries) {
+            for(Map.Entry<DNSKey, CachedAnswer> e : entries) {
+                DNSKey key = e.getKey();
+                if(localEntries.containsKey(key) || (empty != null && empty.find(key.name) >= 0)) continue;
+                cachedEntries.put(key, e.getValue());
+            }
+        }
+    }
+
+    /**
+     * Find the local zone a name belongs to, creating it if needed.
+     * @param name The name.
+     * @return The deepest local zone enclosing the name.
+     */
+    LocalZone zoneFor(Name name) {
+        for(int i = 0; i < name.labels() - 1; i++) {
+            LocalZone zone = localZones.get(i == 0 ? name : new Name(name, i));
+            if(zone != null) return zone;
+        }
+        Name origin = LocalZone.defaultOrigin(name);
+        return localZones.computeIfAbsent(origin, LocalZone::new);
+    }
+}
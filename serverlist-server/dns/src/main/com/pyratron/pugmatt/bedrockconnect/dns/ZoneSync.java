@@ -0,0 +1,242 @@
+package main.com.pyratron.pugmatt.bedrockconnect.dns;
+
+import org.xbill.DNS.*;
+import org.xbill.DNS.Record;
+
+import java.io.IOException;
+import java.net.*;
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Keeps local zones in sync between DNS nodes.
+ *
+ * As a primary, sends NOTIFY to the configured secondaries when a zone changes.
+ * As a secondary, loads every local zone from the primary with AXFR, then follows changes
+ * with IXFR, both periodically and when the primary sends a NOTIFY. The local zones of a secondary are
+ * those its own entries fall into plus those declared with <code>dns-zones</code>, so zones that only
+ * the primary has entries in must be declared.
+ */
+public class ZoneSync {
+    private final DNSResolver resolver;
+    private volatile List<InetSocketAddress> notifyTargets = new CopyOnWriteArrayList<>();
+    private volatile Set<InetAddress> allowTransfer = ConcurrentHashMap.newKeySet();
+    private volatile InetSocketAddress primary = null;
+
+    private final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "DNS Zone Sync");
+        t.setDaemon(true);
+        return t;
+    });
+    private ScheduledFuture<?> refreshTask;
+    private final Set<Name> pendingNotify = ConcurrentHashMap.newKeySet();
+    private final Set<Name> pendingRefresh = ConcurrentHashMap.newKeySet();
+    /**
+     * Zones loaded from the primary at least once. Other zones still hold this node's own entries.
+     */
+    private final Set<Name> loaded = ConcurrentHashMap.newKeySet();
+
+    ZoneSync(DNSResolver resolver) {
+        this.resolver = resolver;
+    }
+
+    /**
+     * Add a secondary to notify of changes. Secondaries are allowed to transfer zones.
+     * @param target Address of the secondary.
+     */
+    public void addNotifyTarget(InetSocketAddress target) {
+        notifyTargets.add(target);
+        allowTransfer.add(target.getAddress());
+    }
+
+    /**
+     * Allow an address to transfer zones without notifying it.
+     * @param address The address.
+     */
+    public void addAllowTransfer(InetAddress address) {
+        allowTransfer.add(address);
+    }
+
+    /**
+     * Replicate all local zones from a primary.
+     * @param primary Address of the primary. It is also allowed to send NOTIFY.
+     */
+    public void setPrimary(InetSocketAddress primary) {
+        this.primary = primary;
+    }
+
+    public boolean isSecondary() {
+        return primary != null;
+    }
+
+    /**
+     * @param client Address of a client requesting AXFR or IXFR.
+     * @return Whether the client may transfer zones.
+     */
+    public boolean mayTransfer(InetAddress client) {
+        return client.isLoopbackAddress() || allowTransfer.contains(client);
+    }
+
+    /**
+     * @param client Address a NOTIFY came from.
+     * @return Whether the NOTIFY should trigger a refresh.
+     */
+    public boolean acceptsNotify(InetAddress client) {
+        return primary != null && primary.getAddress().equals(client);
+    }
+
+    /**
+     * Take over the settings of another instance, after a reload.
+     * @param other The instance built from the reloaded configuration.
+     */
+    void copySettings(ZoneSync other) {
+        Set<InetAddress> allowed = ConcurrentHashMap.newKeySet();
+        allowed.addAll(other.allowTransfer);
+        allowTransfer = allowed;
+        notifyTargets = new CopyOnWriteArrayList<>(other.notifyTargets);
+        primary = other.primary;
+    }
+
+    /**
+     * Start the periodic refresh of all local zones. It does nothing while this node is not a secondary.
+     */
+    public synchronized void start() {
+        if(refreshTask != null) return;
+        refreshTask = executor.scheduleWithFixedDelay(() -> {
+            if(primary == null) return;
+            for(LocalZone zone : resolver.getLocalZones()) refresh(zone);
+        }, 0, LocalZone.REFRESH, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Stop the periodic refresh.
+     */
+    public synchronized void stop() {
+        if(refreshTask == null) return;
+        refreshTask.cancel(false);
+        refreshTask = null;
+    }
+
+    /**
+     * @param origin Apex of a local zone.
+     * @return Whether the zone holds the primary's data rather than this node's own entries.
+     */
+    boolean isLoaded(Name origin) {
+        return loaded.contains(origin);
+    }
+
+    /**
+     * The local zones were rebuilt by a reload. A secondary brings them up to date from the primary,
+     * with IXFR for zones whose transferred content was carried over, a primary notifies its secondaries.
+     * @param zones The new zones.
+     */
+    void reloaded(Collection<LocalZone> zones) {
+        if(primary == null) {
+            loaded.clear();
+        } else {
+            Set<Name> origins = new HashSet<>();
+            for(LocalZone zone : zones) origins.add(zone.getOrigin());
+            loaded.retainAll(origins);
+        }
+        for(LocalZone zone : zones) {
+            if(primary != null) scheduleRefresh(zone);
+            else changed(zone);
+        }
+    }
+
+    /**
+     * Notify secondaries that a zone changed.
+     * Changes within a second are sent as one NOTIFY.
+     * @param zone The zone that changed.
+     */
+    public void changed(LocalZone zone) {
+        if(notifyTargets.isEmpty() || !pendingNotify.add(zone.getOrigin())) return;
+        executor.schedule(() -> {
+            pendingNotify.remove(zone.getOrigin());
+            for(InetSocketAddress target : notifyTargets) sendNotify(zone, target);
+        }, 1, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Refresh a zone soon, after a NOTIFY from the primary.
+     * @param zone The zone.
+     */
+    public void scheduleRefresh(LocalZone zone) {
+        if(!pendingRefresh.add(zone.getOrigin())) return;
+        executor.execute(() -> {
+            pendingRefresh.remove(zone.getOrigin());
+            refresh(zone);
+        });
+    }
+
+    /**
+     * Bring a zone up to date from the primary. Uses AXFR for the first load and IXFR afterwards.
+     * @param zone The zone.
+     */
+    void refresh(LocalZone zone) {
+        long serial = zone.getSerial();
+        try {
+            ZoneTransferIn xfrin = !loaded.contains(zone.getOrigin())
+                ? ZoneTransferIn.newAXFR(zone.getOrigin(), primary, null)
+                : ZoneTransferIn.newIXFR(zone.getOrigin(), serial, true, primary, null);
+            xfrin.setTimeout(Duration.ofSeconds(10));
+            xfrin.run();
+
+            if(xfrin.isCurrent()) return;
+            if(xfrin.isAXFR()) {
+                List<Record> records = xfrin.getAXFR();
+                long newSerial = ((SOARecord) records.get(0)).getSerial();
+                resolver.loadZone(zone, newSerial, records);
+                loaded.add(zone.getOrigin());
+                System.out.printf("DNS zone %s loaded from %s, serial %d, %d records%n",
+                    zone.getOrigin(), primary, newSerial, records.size() - 1);
+            } else {
+                for(ZoneTransferIn.Delta d : xfrin.getIXFR()) {
+                    if(!resolver.applyDelta(zone, d.start, d.end, d.deletes, d.adds)) {
+                        // Out of step with the primary. Start over with a full transfer.
+                        loaded.remove(zone.getOrigin());
+                        scheduleRefresh(zone);
+                        return;
+                    }
+                }
+                System.out.printf("DNS zone %s updated from %s, serial %d -> %d%n",
+                    zone.getOrigin(), primary, serial, zone.getSerial());
+            }
+        } catch (IOException | ZoneTransferException e) {
+            System.out.printf("Unable to transfer DNS zone %s from %s: %s%n", zone.getOrigin(), primary, e.getMessage());
+        }
+    }
+
+    /**
+     * Send a NOTIFY for a zone, retrying until acknowledged.
+     * @param zone The zone.
+     * @param target The secondary.
+     */
+    private void sendNotify(LocalZone zone, InetSocketAddress target) {
+        Message notify = new Message();
+        notify.getHeader().setOpcode(Opcode.NOTIFY);
+        notify.getHeader().setFlag(Flags.AA);
+        notify.addRecord(Record.newRecord(zone.getOrigin(), Type.SOA, DClass.IN), Section.QUESTION);
+        notify.addRecord(zone.getSOA(), Section.ANSWER);
+        byte[] wire = notify.toWire();
+        int id = notify.getHeader().getID();
+
+        try (DatagramSocket socket = new DatagramSocket()) {
+            socket.setSoTimeout(1000);
+            byte[] buffer = new byte[512];
+            for(int attempt = 0; attempt < 3; attempt++) {
+                socket.send(new DatagramPacket(wire, wire.length, target));
+                try {
+                    DatagramPacket ack = new DatagramPacket(buffer, buffer.length);
+                    socket.receive(ack);
+                    if(ack.getLength() >= 2 && ((buffer[0] & 0xFF) << 8 | (buffer[1] & 0xFF)) == id) return;
+                } catch (SocketTimeoutException ignored) {
+                }
+            }
+            System.out.printf("No response to DNS NOTIFY for %s from %s%n", zone.getOrigin(), target);
+        } catch (IOException e) {
+            System.out.printf("Unable to send DNS NOTIFY for %s to %s: %s%n", zone.getOrigin(), target, e.getMessage());
+        }
+    }
+}
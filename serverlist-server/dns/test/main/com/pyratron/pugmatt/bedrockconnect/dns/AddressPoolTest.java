@@ -0,0 +1,187 @@
+package main.com.pyratron.pugmatt.bedrockconnect.dns;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.xbill.DNS.ARecord;
+import org.xbill.DNS.Name;
+import org.xbill.DNS.Record;
+import org.xbill.DNS.Type;
+
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetSocketAddress;
+import java.net.SocketException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks a pool against stub Bedrock servers on loopback, all on the same port: 127.0.0.2 and 127.0.0.3.
+ */
+public class AddressPoolTest {
+
+    private static final Name PLAY = Name.fromConstantString("play.example.");
+
+    private final List<StubServer> servers = new ArrayList<>();
+    private StubServer a;
+    private StubServer b;
+
+    @Before
+    public void setUp() throws IOException {
+        a = start("127.0.0.2", 0);
+        b = start("127.0.0.3", a.port());
+    }
+
+    @After
+    public void tearDown() {
+        for(StubServer server : servers) server.close();
+    }
+
+    @Test
+    public void smoothWeightedRoundRobin() {
+        AddressPool pool = pool(2, 1);
+
+        List<String> firsts = new ArrayList<>();
+        for(int i = 0; i < 6; i++) {
+            List<Record> answer = pool.answer(PLAY, Type.A);
+            assertEquals(2, answer.size());
+            assertNotEquals(address(answer.get(0)), address(answer.get(1)));
+            firsts.add(address(answer.get(0)));
+        }
+
+        // a, b, a repeated: b is picked between the turns of a instead of after both
+        assertEquals(Arrays.asList("127.0.0.2", "127.0.0.3", "127.0.0.2", "127.0.0.2", "127.0.0.3", "127.0.0.2"), firsts);
+        assertEquals(AddressPool.TTL, pool.answer(PLAY, Type.A).get(0).getTTL());
+        assertTrue(pool.answer(PLAY, Type.AAAA).isEmpty());
+    }
+
+    @Test
+    public void freeSlotsScaleWeight() {
+        a.players = 90;
+        b.players = 0;
+        AddressPool pool = pool(1, 1);
+        pool.check();
+
+        assertEquals(0.9, pool.getTargets().get(0).getLoad(), 0.001);
+        int toA = 0;
+        for(int i = 0; i < 110; i++) {
+            if(address(pool.answer(PLAY, Type.A).get(0)).equals("127.0.0.2")) toA++;
+        }
+        // Weights 10 and 100
+        assertEquals(10, toA);
+    }
+
+    @Test
+    public void dropsTargetAfterTwoMissedPingsUntilItAnswers() {
+        AddressPool pool = pool(1, 1);
+        pool.check();
+        AddressPool.Target target = pool.getTargets().get(1);
+        assertTrue(target.isHealthy());
+
+        b.silent = true;
+        pool.check();
+        assertTrue("One missed ping is tolerated", target.isHealthy());
+        pool.check();
+        assertFalse(target.isHealthy());
+        for(int i = 0; i < 4; i++) {
+            List<Record> answer = pool.answer(PLAY, Type.A);
+            assertEquals(1, answer.size());
+            assertEquals("127.0.0.2", address(answer.get(0)));
+        }
+
+        b.silent = false;
+        pool.check();
+        assertTrue(target.isHealthy());
+        assertEquals(2, pool.answer(PLAY, Type.A).size());
+    }
+
+    @Test
+    public void answersWithEveryTargetWhenNoneIsHealthy() {
+        AddressPool pool = pool(1, 1);
+        a.silent = true;
+        b.silent = true;
+        pool.check();
+        pool.check();
+
+        assertFalse(pool.getTargets().get(0).isHealthy());
+        assertFalse(pool.getTargets().get(1).isHealthy());
+        assertEquals(2, pool.answer(PLAY, Type.A).size());
+    }
+
+    private AddressPool pool(int weightA, int weightB) {
+        AddressPool pool = new AddressPool();
+        pool.add(a.address(), weightA);
+        pool.add(b.address(), weightB);
+        return pool;
+    }
+
+    private StubServer start(String host, int port) throws SocketException {
+        StubServer server = new StubServer(new InetSocketAddress(host, port));
+        servers.add(server);
+        return server;
+    }
+
+    private static String address(Record record) {
+        return ((ARecord) record).getAddress().getHostAddress();
+    }
+
+    /**
+     * Answers unconnected pings with the current player count, or not at all when silent.
+     */
+    private static class StubServer {
+        private static final byte[] MAGIC = {
+            0x00, (byte) 0xff, (byte) 0xff, 0x00, (byte) 0xfe, (byte) 0xfe, (byte) 0xfe, (byte) 0xfe,
+            (byte) 0xfd, (byte) 0xfd, (byte) 0xfd, (byte) 0xfd, 0x12, 0x34, 0x56, 0x78
+        };
+
+        private final DatagramSocket socket;
+        volatile boolean silent;
+        volatile int players;
+
+        StubServer(InetSocketAddress address) throws SocketException {
+            socket = new DatagramSocket(address);
+            Thread thread = new Thread(() -> {
+                byte[] buffer = new byte[64];
+                while(!socket.isClosed()) {
+                    try {
+                        DatagramPacket packet = new DatagramPacket(buffer, buffer.length);
+                        socket.receive(packet);
+                        if(silent || packet.getLength() < 9 || buffer[0] != 0x01) continue;
+                        byte[] pong = pong(ByteBuffer.wrap(buffer, 1, 8).getLong());
+                        socket.send(new DatagramPacket(pong, pong.length, packet.getSocketAddress()));
+                    } catch (IOException e) {
+                        // Closed
+                    }
+                }
+            }, "Stub Bedrock " + address);
+            thread.setDaemon(true);
+            thread.start();
+        }
+
+        private byte[] pong(long time) {
+            byte[] motd = ("MCPE;Stub;440;1.17.0;" + players + ";100;1;Stub;Survival;1;19132;19133;")
+                .getBytes(StandardCharsets.UTF_8);
+            ByteBuffer pong = ByteBuffer.allocate(35 + motd.length);
+            pong.put((byte) 0x1c).putLong(time).putLong(1).put(MAGIC).putShort((short) motd.length).put(motd);
+            return pong.array();
+        }
+
+        InetSocketAddress address() {
+            return new InetSocketAddress(socket.getLocalAddress(), socket.getLocalPort());
+        }
+
+        int port() {
+            return socket.getLocalPort();
+        }
+
+        void close() {
+            socket.close();
+        }
+    }
+}
@@ -0,0 +1,206 @@
+package main.com.pyratron.pugmatt.bedrockconnect.dns;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.xbill.DNS.Name;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+/**
+ * Compiles domain lists to .bcbl files in a temporary folder and looks names up in the mapped result.
+ */
+public class BlocklistTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void compilesThenReloadsCompiledFile() throws IOException {
+        File list = write("ads.example.com", "tracker.example.net");
+        File compiled = new File(list.getPath() + ".bcbl");
+
+        Blocklist first = Blocklist.load(list);
+        assertTrue(compiled.exists());
+        assertEquals(2, first.size());
+
+        // Up to date, so the compiled copy is mapped as it is, even if the list changed meanwhile
+        long compiledAt = list.lastModified() + 60_000;
+        assertTrue(compiled.setLastModified(compiledAt));
+        Files.write(list.toPath(), Collections.singletonList("other.example.org"), StandardCharsets.UTF_8);
+        assertTrue(list.setLastModified(compiledAt - 30_000));
+        Blocklist reloaded = Blocklist.load(list);
+        assertEquals(compiledAt, compiled.lastModified());
+        assertTrue(reloaded.contains(name("ads.example.com.")));
+        assertFalse(reloaded.contains(name("other.example.org.")));
+
+        // A newer list is compiled again
+        assertTrue(list.setLastModified(compiledAt + 30_000));
+        Blocklist recompiled = Blocklist.load(list);
+        assertEquals(1, recompiled.size());
+        assertTrue(recompiled.contains(name("other.example.org.")));
+        assertFalse(recompiled.contains(name("ads.example.com.")));
+    }
+
+    @Test
+    public void blocksSubdomainsButNotParentsOrSiblings() throws IOException {
+        Blocklist list = Blocklist.load(write("ads.example.com"));
+
+        assertTrue(list.contains(name("ads.example.com.")));
+        assertTrue(list.contains(name("a.b.ADS.Example.com.")));
+        assertFalse(list.contains(name("example.com.")));
+        assertFalse(list.contains(name("com.")));
+        assertFalse(list.contains(name("xads.example.com.")));
+        assertFalse(list.contains(name("ads.example.com.evil.")));
+    }
+
+    @Test
+    public void looksUpRawQuestion() throws IOException {
+        Blocklist list = Blocklist.load(write("ads.example.com"));
+        byte[] request = new byte[12 + 32];
+        byte[] wire = name("x.Ads.example.com.").toWire();
+        System.arraycopy(wire, 0, request, 12, wire.length);
+
+        assertTrue(list.contains(request, 12));
+        // A name running off the end of the buffer is not blocked
+        assertFalse(list.contains(Arrays.copyOf(request, 12 + wire.length - 1), 12));
+    }
+
+    @Test
+    public void findsEntriesInFirstAndLastBucket() throws IOException {
+        String first = domainInBucket(0);
+        String last = domainInBucket(Blocklist.BUCKETS - 1);
+        List<String> sameBucket = domainsSharingBucket();
+        List<String> domains = new ArrayList<>(Arrays.asList(first, last));
+        domains.addAll(sameBucket);
+        Blocklist list = Blocklist.load(write(domains.toArray(new String[0])));
+
+        assertEquals(domains.size(), list.size());
+        for(String domain : domains) assertTrue(domain, list.contains(name(domain + ".")));
+        // Neighbours in the same bucket are still told apart
+        assertFalse(list.contains(name("not-" + sameBucket.get(0) + ".")));
+    }
+
+    @Test
+    public void emptyListBlocksNothing() throws IOException {
+        Blocklist list = Blocklist.load(write("# nothing here", ""));
+
+        assertEquals(0, list.size());
+        assertFalse(list.contains(name(domainInBucket(0) + ".")));
+        assertFalse(list.contains(name(domainInBucket(Blocklist.BUCKETS - 1) + ".")));
+    }
+
+    @Test
+    public void duplicatesAreStoredOnce() throws IOException {
+        Blocklist list = Blocklist.load(write("ads.example.com", "ADS.example.com.", "0.0.0.0 ads.example.com"));
+
+        assertEquals(1, list.size());
+    }
+
+    @Test
+    public void parsesHostsFiles() throws IOException {
+        Blocklist list = Blocklist.load(write(
+            "# Hosts file",
+            "127.0.0.1 localhost",
+            "0.0.0.0 0.0.0.0",
+            "0.0.0.0\tads.example.com",
+            "127.0.0.1   tracker.example.net   # inline comment",
+            "   ",
+            "plain.example.org",
+            "::1 ip6.example.org"));
+
+        assertEquals(4, list.size());
+        assertTrue(list.contains(name("ads.example.com.")));
+        assertTrue(list.contains(name("tracker.example.net.")));
+        assertTrue(list.contains(name("plain.example.org.")));
+        assertTrue(list.contains(name("ip6.example.org.")));
+        assertFalse(list.contains(name("localhost.")));
+        assertNull(Blocklist.parseLine("# only a comment"));
+        assertEquals("ads.example.com", Blocklist.parseLine("0.0.0.0 ads.example.com # ad server"));
+    }
+
+    @Test
+    public void internationalizedDomainsAreStoredAsPunycode() throws IOException {
+        Blocklist list = Blocklist.load(write("b\u00fccher.example", "\u00fcn\u00efc\u00f6d\u00e9..example", "ok.example"));
+
+        assertEquals(2, list.size());
+        assertTrue(list.contains(name("xn--bcher-kva.example.")));
+        assertTrue(list.contains(name("www.XN--BCHER-KVA.example.")));
+        assertTrue(list.contains(name("ok.example.")));
+    }
+
+    @Test
+    public void rejectsInvalidDomains() {
+        byte[] wire = new byte[256];
+        assertEquals(0, Blocklist.toWire("a..example", wire));
+        assertEquals(0, Blocklist.toWire(".", wire));
+        assertEquals(0, Blocklist.toWire(repeat('a', 64) + ".example", wire));
+        assertEquals(0, Blocklist.toWire(repeat("abcdefghi.", 26) + "example", wire));
+        assertEquals(13, Blocklist.toWire("Ads.Example.", wire));
+        assertEquals('a', wire[1]);
+    }
+
+    @Test(expected = IOException.class)
+    public void rejectsTruncatedFile() throws IOException {
+        File list = write("ads.example.com");
+        Blocklist.load(list);
+        File compiled = new File(list.getPath() + ".bcbl");
+        try (RandomAccessFile file = new RandomAccessFile(compiled, "rw")) {
+            file.setLength(file.length() - 4);
+        }
+        assertTrue(compiled.setLastModified(list.lastModified() + 60_000));
+
+        Blocklist.load(list);
+    }
+
+    private File write(String... lines) throws IOException {
+        File file = folder.newFile();
+        Files.write(file.toPath(), Arrays.asList(lines), StandardCharsets.UTF_8);
+        // Older than anything compiled from it
+        assertTrue(file.setLastModified(file.lastModified() - 60_000));
+        return file;
+    }
+
+    private static String domainInBucket(int bucket) {
+        byte[] wire = new byte[256];
+        for(int i = 0; ; i++) {
+            String domain = "d" + i + ".example";
+            int length = Blocklist.toWire(domain, wire);
+            if(Blocklist.bucket(Blocklist.hash(wire, 0, length)) == bucket) return domain;
+        }
+    }
+
+    private static List<String> domainsSharingBucket() {
+        byte[] wire = new byte[256];
+        Map<Integer, String> seen = new HashMap<>();
+        for(int i = 0; ; i++) {
+            String domain = "s" + i + ".example";
+            int length = Blocklist.toWire(domain, wire);
+            String other = seen.put(Blocklist.bucket(Blocklist.hash(wire, 0, length)), domain);
+            if(other != null) return Arrays.asList(other, domain);
+        }
+    }
+
+    private static Name name(String name) {
+        return Name.fromConstantString(name);
+    }
+
+    private static String repeat(char c, int count) {
+        char[] chars = new char[count];
+        Arrays.fill(chars, c);
+        return new String(chars);
+    }
+
+    private static String repeat(String s, int count) {
+        StringBuilder out = new StringBuilder();
+        for(int i = 0; i < count; i++) out.append(s);
+        return out.toString();
+    }
+}
@@ -0,0 +1,129 @@
+package main.com.pyratron.pugmatt.bedrockconnect.dns;
+
+import org.junit.Test;
+import org.xbill.DNS.*;
+import org.xbill.DNS.Record;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.*;
+
+/**
+ * Builds responses from cached answers the way a cache hit does, and decodes them with dnsjava.
+ */
+public class CachedAnswerTest {
+
+    private static final Name QUESTION = Name.fromConstantString("WwW.Example.");
+    private static final Name WWW = Name.fromConstantString("www.example.");
+    private static final Name TARGET = Name.fromConstantString("edge.cdn.example.net.");
+
+    @Test
+    public void hitHasRequestIdQuestionAndDecrementedTtls() throws IOException {
+        AtomicLong now = new AtomicLong();
+        CachedAnswer cached = new CachedAnswer(Arrays.asList(
+            new CNAMERecord(WWW, DClass.IN, 300, TARGET),
+            new ARecord(TARGET, DClass.IN, 60, InetAddress.getByName("192.0.2.1")),
+            new ARecord(TARGET, DClass.IN, 45, InetAddress.getByName("192.0.2.2"))), now::get);
+        now.addAndGet(Duration.ofSeconds(10).toNanos());
+
+        Message response = hit(query(0x1234, Type.A), cached, true);
+
+        assertEquals(0x1234, response.getHeader().getID());
+        assertTrue(response.getHeader().getFlag(Flags.QR));
+        assertTrue(response.getHeader().getFlag(Flags.RD));
+        assertTrue(response.getHeader().getFlag(Flags.RA));
+        assertEquals(Rcode.NOERROR, response.getRcode());
+
+        Record question = response.getQuestion();
+        assertEquals(Type.A, question.getType());
+        assertEquals(DClass.IN, question.getDClass());
+        // Copied from the request byte for byte, case included
+        assertEquals(QUESTION.toString(), question.getName().toString());
+
+        List<Record> answers = response.getSection(Section.ANSWER);
+        assertEquals(3, answers.size());
+        assertEquals(new CNAMERecord(WWW, DClass.IN, 290, TARGET), answers.get(0));
+        assertEquals(290, answers.get(0).getTTL());
+        assertEquals(50, answers.get(1).getTTL());
+        assertEquals(35, answers.get(2).getTTL());
+        assertEquals(InetAddress.getByName("192.0.2.2"), ((ARecord) answers.get(2)).getAddress());
+    }
+
+    @Test
+    public void ttlStopsAtZero() throws IOException {
+        AtomicLong now = new AtomicLong();
+        CachedAnswer cached = new CachedAnswer(Collections.singletonList(
+            new ARecord(WWW, DClass.IN, 5, InetAddress.getByName("192.0.2.1"))), now::get);
+        assertFalse(cached.expired());
+
+        now.addAndGet(Duration.ofSeconds(6).toNanos());
+
+        assertTrue(cached.expired());
+        assertEquals(0, hit(query(1, Type.A), cached, true).getSection(Section.ANSWER).get(0).getTTL());
+    }
+
+    @Test
+    public void emptyAnswerWithoutRecursionDesired() throws IOException {
+        CachedAnswer cached = new CachedAnswer(Collections.emptyList());
+        Message request = query(0xBEEF, Type.AAAA);
+        request.getHeader().unsetFlag(Flags.RD);
+
+        Message response = hit(request, cached, false);
+
+        assertEquals(0xBEEF, response.getHeader().getID());
+        assertFalse(response.getHeader().getFlag(Flags.RD));
+        assertFalse(response.getHeader().getFlag(Flags.RA));
+        assertEquals(Type.AAAA, response.getQuestion().getType());
+        assertTrue(response.getSection(Section.ANSWER).isEmpty());
+    }
+
+    @Test
+    public void cachedResultIsServedFromState() throws IOException {
+        ResolverState s = new ResolverState(10);
+        DNSKey key = new DNSKey(Type.A, WWW);
+        s.cacheResult(key, Collections.singletonList(new ARecord(WWW, DClass.IN, 300, InetAddress.getByName("192.0.2.1"))));
+
+        Message response = hit(query(7, Type.A), s.getCached(key), true);
+
+        assertEquals(1, response.getSection(Section.ANSWER).size());
+        assertTrue(response.getSection(Section.ANSWER).get(0).getTTL() <= 300);
+    }
+
+    @Test
+    public void reloadDropsCachedAnswersInEmptyZones() throws IOException {
+        ResolverState previous = new ResolverState(10);
+        previous.emptyZones = null;
+        DNSKey publicName = new DNSKey(Type.A, WWW);
+        DNSKey privateName = new DNSKey(Type.PTR, Name.fromConstantString("1.0.168.192.in-addr.arpa."));
+        previous.cacheResult(publicName, Collections.singletonList(new ARecord(WWW, DClass.IN, 300, InetAddress.getByName("192.0.2.1"))));
+        previous.cacheResult(privateName, Collections.emptyList());
+
+        ResolverState next = new ResolverState(10);
+        next.inheritCache(previous);
+
+        assertNotNull(next.getCached(publicName));
+        assertNull(next.getCached(privateName));
+    }
+
+    private static Message query(int id, int type) {
+        Message request = Message.newQuery(Record.newRecord(QUESTION, type, DClass.IN));
+        request.getHeader().setID(id);
+        return request;
+    }
+
+    private static Message hit(Message request, CachedAnswer cached, boolean recursive) throws IOException {
+        byte[] data = request.toWire();
+        int questionEnd = DNSResolver.questionEnd(data, data.length);
+        assertEquals(data.length, questionEnd);
+
+        ResolverState s = new ResolverState(10);
+        s.recursive = recursive;
+        return new Message(DNSResolver.constructCachedResponse(s, data, questionEnd, cached));
+    }
+}
@@ -0,0 +1,93 @@
+package main.com.pyratron.pugmatt.bedrockconnect.dns;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Feeds skewed streams of keys, a few hot ones hidden in many rare ones, and reads back the top.
+ */
+public class HeavyHittersTest {
+
+    private static final int[] HOT = { 5000, 3000, 2000, 1000, 500 };
+
+    @Test
+    public void reportsHotKeysOfSkewedStream() {
+        HeavyHitters<String> hitters = new HeavyHitters<>(5);
+        for(long key : stream(20000)) hitters.add("key" + key);
+
+        List<Map.Entry<String, Long>> top = hitters.top();
+
+        assertEquals(HOT.length, top.size());
+        for(int i = 0; i < HOT.length; i++) {
+            assertEquals("key" + i, top.get(i).getKey());
+            // Count-min only overestimates
+            assertTrue(top.get(i).getValue() >= HOT[i]);
+            assertTrue(top.get(i).getValue() < HOT[i] + 100);
+        }
+    }
+
+    @Test
+    public void reportsHotLongKeys() {
+        HeavyHitters.OfLong hitters = new HeavyHitters.OfLong(5);
+        for(long key : stream(20000)) hitters.add(key);
+
+        List<Map.Entry<Long, Long>> top = hitters.top();
+
+        for(int i = 0; i < HOT.length; i++) assertEquals(Long.valueOf(i), top.get(i).getKey());
+    }
+
+    @Test
+    public void countsOfTrackedKeysKeepGrowing() {
+        HeavyHitters<String> hitters = new HeavyHitters<>(2);
+        hitters.add("a");
+        hitters.add("b");
+        for(int i = 0; i < 99; i++) hitters.add("a");
+
+        assertEquals("a", hitters.top().get(0).getKey());
+        assertEquals(100, (long) hitters.top().get(0).getValue());
+
+        // A key catching up replaces the smallest one once it is ahead of its current count
+        for(int i = 0; i < 50; i++) hitters.add("c");
+        assertEquals(Collections.singletonList("c"), keysAfter(hitters.top(), 1));
+    }
+
+    @Test
+    public void decayHalvesCountsAndDropsEmptyKeys() {
+        HeavyHitters<String> hitters = new HeavyHitters<>(3);
+        for(int i = 0; i < 8; i++) hitters.add("a");
+        hitters.add("b");
+
+        hitters.decay();
+
+        List<Map.Entry<String, Long>> top = hitters.top();
+        assertEquals(1, top.size());
+        assertEquals("a", top.get(0).getKey());
+        assertEquals(4, (long) top.get(0).getValue());
+    }
+
+    /**
+     * The hot keys 0 to 4, each {@link #HOT} times, shuffled with distinct rare keys from 1000 up.
+     */
+    private static List<Long> stream(int rare) {
+        List<Long> keys = new ArrayList<>();
+        for(int i = 0; i < HOT.length; i++) {
+            for(int n = 0; n < HOT[i]; n++) keys.add((long) i);
+        }
+        for(int i = 0; i < rare; i++) keys.add(1000L + i);
+        Collections.shuffle(keys, new Random(42));
+        return keys;
+    }
+
+    private static <K> List<K> keysAfter(List<Map.Entry<K, Long>> top, int from) {
+        List<K> keys = new ArrayList<>();
+        for(int i = from; i < top.size(); i++) keys.add(top.get(i).getKey());
+        return keys;
+    }
+}
@@ -0,0 +1,231 @@
+package main.com.pyratron.pugmatt.bedrockconnect.dns;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.xbill.DNS.*;
+import org.xbill.DNS.Record;
+
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+import static org.junit.Assert.*;
+
+/**
+ * Resolves against a hierarchy of stub authoritative servers on loopback, all on the same port:
+ * a root on 127.0.0.2 delegating example. to ns1 (127.0.0.3) and ns2 (127.0.0.4).
+ */
+public class IterativeResolverTest {
+
+    private static final Name EXAMPLE = name("example.");
+    private static final Name NS1 = name("ns1.example.");
+    private static final Name NS2 = name("ns2.example.");
+    private static final Name WWW = name("www.example.");
+
+    private final List<StubServer> servers = new ArrayList<>();
+    private StubServer root;
+    private StubServer ns1;
+    private StubServer ns2;
+
+    @Before
+    public void setUp() throws IOException {
+        root = start("127.0.0.2", 0, query -> {
+            Message response = reply(query);
+            response.addRecord(new NSRecord(EXAMPLE, DClass.IN, 3600, NS1), Section.AUTHORITY);
+            response.addRecord(new NSRecord(EXAMPLE, DClass.IN, 3600, NS2), Section.AUTHORITY);
+            response.addRecord(new ARecord(NS1, DClass.IN, 3600, address("127.0.0.3")), Section.ADDITIONAL);
+            response.addRecord(new ARecord(NS2, DClass.IN, 3600, address("127.0.0.4")), Section.ADDITIONAL);
+            return response;
+        });
+        ns1 = start("127.0.0.3", root.port(), IterativeResolverTest::authoritative);
+        ns2 = start("127.0.0.4", root.port(), IterativeResolverTest::authoritative);
+    }
+
+    @After
+    public void tearDown() {
+        for(StubServer server : servers) server.close();
+    }
+
+    @Test
+    public void resolvesThroughReferral() {
+        IterativeResolver resolver = resolver();
+
+        List<Record> answers = resolver.resolve(WWW, Type.A);
+
+        assertEquals(1, answers.size());
+        assertEquals(address("192.0.2.1"), ((ARecord) answers.get(0)).getAddress());
+        assertEquals(1, root.queries());
+        assertEquals(Arrays.asList(NS1, NS2), resolver.getInfrastructureCache().getZoneCut(EXAMPLE));
+    }
+
+    @Test
+    public void usesCachedDelegation() {
+        IterativeResolver resolver = resolver();
+
+        for(int i = 0; i < 10; i++) {
+            assertFalse(resolver.resolve(WWW, Type.A).isEmpty());
+        }
+
+        assertEquals(1, root.queries());
+        assertEquals(10, ns1.queries() + ns2.queries());
+    }
+
+    @Test
+    public void avoidsServerThatTimedOut() {
+        ns2.setSilent(true);
+        IterativeResolver resolver = resolver();
+
+        for(int i = 0; i < 10; i++) {
+            assertFalse(resolver.resolve(WWW, Type.A).isEmpty());
+        }
+
+        // The silent server may be tried first once, after that its SRTT ranks it last
+        assertTrue(ns2.queries() <= 1);
+        assertEquals(10, ns1.queries());
+        InetSocketAddress silent = new InetSocketAddress("127.0.0.4", root.port());
+        if(ns2.queries() == 1) assertTrue(resolver.getInfrastructureCache().getSrtt(silent) > 1000);
+    }
+
+    @Test
+    public void rankingDoesNotDecaySrtt() {
+        AtomicLong now = new AtomicLong();
+        InfrastructureCache cache = new InfrastructureCache(100, now::get);
+        InetSocketAddress fast = new InetSocketAddress("127.0.0.3", 53);
+        InetSocketAddress slow = new InetSocketAddress("127.0.0.4", 53);
+        cache.reportRtt(fast, 10);
+        cache.reportRtt(slow, 400);
+
+        for(int i = 0; i < 10000; i++) {
+            assertEquals(fast, cache.rank(Arrays.asList(fast, slow)).get(0));
+        }
+        assertEquals(400, cache.getSrtt(slow), 0.001);
+
+        now.addAndGet(Duration.ofSeconds(60).toNanos());
+        assertEquals(200, cache.getSrtt(slow), 0.001);
+
+        // Eventually the slow server is worth trying again
+        now.addAndGet(Duration.ofMinutes(10).toNanos());
+        cache.reportRtt(fast, 10);
+        assertEquals(slow, cache.rank(Arrays.asList(fast, slow)).get(0));
+    }
+
+    @Test
+    public void timeoutPenaltyReplacesDecayedSrtt() {
+        AtomicLong now = new AtomicLong();
+        InfrastructureCache cache = new InfrastructureCache(100, now::get);
+        InetSocketAddress server = new InetSocketAddress("127.0.0.3", 53);
+
+        cache.reportTimeout(server);
+        assertEquals(2000, cache.getSrtt(server), 0.001);
+        cache.reportTimeout(server);
+        assertEquals(4000, cache.getSrtt(server), 0.001);
+
+        now.addAndGet(Duration.ofSeconds(120).toNanos());
+        assertEquals(1000, cache.getSrtt(server), 0.001);
+        cache.reportRtt(server, 20);
+        assertEquals(1000 * 0.7 + 20 * 0.3, cache.getSrtt(server), 0.001);
+    }
+
+    private IterativeResolver resolver() {
+        IterativeResolver resolver = new IterativeResolver(
+            Collections.singletonList(new InetSocketAddress("127.0.0.2", root.port())), root.port(), 100);
+        resolver.setTimeout(Duration.ofMillis(200));
+        return resolver;
+    }
+
+    private StubServer start(String host, int port, Function<Message, Message> handler) throws SocketException {
+        StubServer server = new StubServer(new InetSocketAddress(host, port), handler);
+        servers.add(server);
+        return server;
+    }
+
+    private static Message authoritative(Message query) {
+        Message response = reply(query);
+        response.getHeader().setFlag(Flags.AA);
+        Record question = query.getQuestion();
+        if(question.getName().equals(WWW) && question.getType() == Type.A) {
+            response.addRecord(new ARecord(WWW, DClass.IN, 300, address("192.0.2.1")), Section.ANSWER);
+        } else if(!question.getName().equals(EXAMPLE)) {
+            response.getHeader().setRcode(Rcode.NXDOMAIN);
+        }
+        return response;
+    }
+
+    private static Message reply(Message query) {
+        Message response = new Message(query.getHeader().getID());
+        response.getHeader().setFlag(Flags.QR);
+        response.addRecord(query.getQuestion(), Section.QUESTION);
+        return response;
+    }
+
+    private static Name name(String name) {
+        return Name.fromConstantString(name);
+    }
+
+    private static InetAddress address(String ip) {
+        try {
+            return InetAddress.getByName(ip);
+        } catch (IOException e) {
+            throw new IllegalArgumentException(ip, e);
+        }
+    }
+
+    /**
+     * Answers each query with the handler's response, or not at all when silent.
+     */
+    private static class StubServer {
+        private final DatagramSocket socket;
+        private final AtomicInteger queries = new AtomicInteger();
+        private volatile boolean silent;
+
+        StubServer(InetSocketAddress address, Function<Message, Message> handler) throws SocketException {
+            socket = new DatagramSocket(address);
+            Thread thread = new Thread(() -> {
+                byte[] buffer = new byte[512];
+                while(!socket.isClosed()) {
+                    try {
+                        DatagramPacket packet = new DatagramPacket(buffer, buffer.length);
+                        socket.receive(packet);
+                        queries.incrementAndGet();
+                        if(silent) continue;
+                        Message query = new Message(Arrays.copyOf(packet.getData(), packet.getLength()));
+                        byte[] response = handler.apply(query).toWire();
+                        socket.send(new DatagramPacket(response, response.length, packet.getSocketAddress()));
+                    } catch (IOException e) {
+                        // Closed, or a query the stub can not parse
+                    }
+                }
+            }, "Stub DNS " + address);
+            thread.setDaemon(true);
+            thread.start();
+        }
+
+        int port() {
+            return socket.getLocalPort();
+        }
+
+        int queries() {
+            return queries.get();
+        }
+
+        void setSilent(boolean silent) {
+            this.silent = silent;
+        }
+
+        void close() {
+            socket.close();
+        }
+    }
+}
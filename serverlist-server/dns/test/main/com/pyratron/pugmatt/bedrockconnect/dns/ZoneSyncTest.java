@@ -0,0 +1,230 @@
+package main.com.pyratron.pugmatt.bedrockconnect.dns;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.xbill.DNS.*;
+import org.xbill.DNS.Record;
+
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Replicates a zone from a primary on loopback to a secondary, with the primary serving transfers over TCP.
+ */
+public class ZoneSyncTest {
+
+    private static final Name EXAMPLE = Name.fromConstantString("example.");
+
+    private DNSResolver primary;
+    private InetSocketAddress primaryAddress;
+    private DNSResolver secondary;
+    private int secondaryPort;
+
+    @Before
+    public void setUp() throws IOException, InterruptedException {
+        int port = freePort();
+        primary = new DNSResolver(port);
+        primary.addLocalZone("example.");
+        primary.putLocalEntry(Type.A, "play.example.", "192.0.2.1");
+        primary.putLocalEntry(Type.A, "lobby.example.", "192.0.2.2");
+        primary.start();
+        primaryAddress = new InetSocketAddress("127.0.0.1", port);
+        awaitTcp(primaryAddress);
+
+        secondaryPort = freePort();
+        secondary = new DNSResolver(secondaryPort);
+        secondary.addLocalZone("example.");
+        secondary.getZoneSync().setPrimary(primaryAddress);
+    }
+
+    @After
+    public void tearDown() {
+        primary.stop();
+        secondary.stop();
+    }
+
+    @Test
+    public void initialTransferIsFull() {
+        LocalZone zone = secondaryZone();
+
+        secondary.getZoneSync().refresh(zone);
+
+        assertEquals(primaryZone().getSerial(), zone.getSerial());
+        assertEquals(new HashSet<>(primaryZone().getRecords()), new HashSet<>(zone.getRecords()));
+        assertEquals(2, zone.getRecords().size());
+    }
+
+    @Test
+    public void incrementalTransferCarriesOnlyTheChange() throws IOException, ZoneTransferException {
+        LocalZone zone = secondaryZone();
+        secondary.getZoneSync().refresh(zone);
+        long before = zone.getSerial();
+
+        primary.putLocalEntry(Type.A, "play.example.", "192.0.2.10");
+
+        ZoneTransferIn ixfr = ZoneTransferIn.newIXFR(EXAMPLE, before, false, primaryAddress, null);
+        ixfr.run();
+        assertTrue(ixfr.isIXFR());
+        List<ZoneTransferIn.Delta> deltas = ixfr.getIXFR();
+        assertEquals(1, deltas.size());
+        assertEquals(before, deltas.get(0).start);
+        // Each list starts with the SOA of its serial
+        assertEquals(Arrays.asList(Type.SOA, Type.A), types(deltas.get(0).deletes));
+        assertEquals(a("play.example.", "192.0.2.1"), deltas.get(0).deletes.get(1));
+        assertEquals(Arrays.asList(Type.SOA, Type.A), types(deltas.get(0).adds));
+        assertEquals(a("play.example.", "192.0.2.10"), deltas.get(0).adds.get(1));
+
+        secondary.getZoneSync().refresh(zone);
+        assertEquals(primaryZone().getSerial(), zone.getSerial());
+        assertEquals(new HashSet<>(primaryZone().getRecords()), new HashSet<>(zone.getRecords()));
+    }
+
+    @Test
+    public void serialOutsideJournalFallsBackToFullTransfer() throws IOException, ZoneTransferException {
+        LocalZone zone = secondaryZone();
+        secondary.getZoneSync().refresh(zone);
+        long before = zone.getSerial();
+
+        // More changes than the journal keeps
+        for(int i = 0; i < 101; i++) {
+            primary.putLocalEntry(Type.A, "lobby.example.", "192.0.2." + (100 + i % 2));
+        }
+
+        ZoneTransferIn ixfr = ZoneTransferIn.newIXFR(EXAMPLE, before, true, primaryAddress, null);
+        ixfr.run();
+        assertTrue(ixfr.isAXFR());
+        // Both records between the opening and closing SOA
+        assertEquals(Arrays.asList(Type.SOA, Type.A, Type.A, Type.SOA), types(ixfr.getAXFR()));
+
+        secondary.getZoneSync().refresh(zone);
+        assertEquals(primaryZone().getSerial(), zone.getSerial());
+        assertEquals(new HashSet<>(primaryZone().getRecords()), new HashSet<>(zone.getRecords()));
+    }
+
+    @Test
+    public void reloadKeepsTransferredZone() {
+        secondary.getZoneSync().refresh(secondaryZone());
+
+        DNSResolver fresh = new DNSResolver(secondaryPort);
+        fresh.addLocalZone("example.");
+        fresh.putLocalEntry(Type.A, "own.example.", "192.0.2.99");
+        fresh.getZoneSync().setPrimary(primaryAddress);
+        secondary.reload(fresh);
+
+        LocalZone zone = secondaryZone();
+        assertSame(zone(fresh), zone);
+        assertTrue(secondary.getZoneSync().isLoaded(EXAMPLE));
+        assertEquals(primaryZone().getSerial(), zone.getSerial());
+        assertEquals(new HashSet<>(primaryZone().getRecords()), new HashSet<>(zone.getRecords()));
+    }
+
+    @Test
+    public void addingAnExistingRecordDoesNotDuplicateIt() {
+        LocalZone zone = new LocalZone(EXAMPLE);
+        zone.load(10, Collections.singletonList(a("play.example.", "192.0.2.1")));
+
+        assertTrue(zone.apply(10, 11, Collections.emptyList(), Collections.singletonList(a("play.example.", "192.0.2.1"))));
+
+        assertEquals(1, zone.getRecords().size());
+        assertEquals(11, zone.getSerial());
+        assertTrue(zone.getDeltasSince(10).get(0).adds.isEmpty());
+    }
+
+    @Test
+    public void notifyOnlyAcceptedFromPrimary() throws IOException {
+        secondary.start();
+
+        assertEquals(Rcode.REFUSED, notifyFrom("127.0.0.5", secondaryPort).getRcode());
+        Message accepted = notifyFrom("127.0.0.1", secondaryPort);
+        assertEquals(Rcode.NOERROR, accepted.getRcode());
+        assertTrue(accepted.getHeader().getFlag(Flags.AA));
+    }
+
+    private LocalZone primaryZone() {
+        return zone(primary);
+    }
+
+    private LocalZone secondaryZone() {
+        return zone(secondary);
+    }
+
+    private static LocalZone zone(DNSResolver resolver) {
+        for(LocalZone zone : resolver.getLocalZones()) {
+            if(zone.getOrigin().equals(EXAMPLE)) return zone;
+        }
+        throw new AssertionError("No zone " + EXAMPLE);
+    }
+
+    /**
+     * Send a NOTIFY for example. from a loopback address, retrying until the secondary's socket is bound.
+     */
+    private static Message notifyFrom(String source, int port) throws IOException {
+        Message notify = new Message();
+        notify.getHeader().setOpcode(Opcode.NOTIFY);
+        notify.getHeader().setFlag(Flags.AA);
+        notify.addRecord(Record.newRecord(EXAMPLE, Type.SOA, DClass.IN), Section.QUESTION);
+        byte[] wire = notify.toWire();
+
+        try (DatagramSocket socket = new DatagramSocket(new InetSocketAddress(source, 0))) {
+            socket.setSoTimeout(200);
+            byte[] buffer = new byte[512];
+            for(int attempt = 0; attempt < 25; attempt++) {
+                socket.send(new DatagramPacket(wire, wire.length, InetAddress.getByName("127.0.0.1"), port));
+                try {
+                    DatagramPacket packet = new DatagramPacket(buffer, buffer.length);
+                    socket.receive(packet);
+                    Message response = new Message(Arrays.copyOf(buffer, packet.getLength()));
+                    assertEquals(notify.getHeader().getID(), response.getHeader().getID());
+                    return response;
+                } catch (SocketTimeoutException ignored) {
+                }
+            }
+        }
+        throw new AssertionError("No answer to NOTIFY from " + source);
+    }
+
+    private static List<Integer> types(List<Record> records) {
+        List<Integer> types = new ArrayList<>();
+        for(Record r : records) types.add(r.getType());
+        return types;
+    }
+
+    private static Record a(String name, String address) {
+        try {
+            return new ARecord(Name.fromString(name), DClass.IN, 86400, InetAddress.getByName(address));
+        } catch (IOException e) {
+            throw new IllegalArgumentException(name, e);
+        }
+    }
+
+    private static int freePort() throws IOException {
+        try (ServerSocket socket = new ServerSocket(0)) {
+            return socket.getLocalPort();
+        }
+    }
+
+    private static void awaitTcp(InetSocketAddress address) throws InterruptedException {
+        for(int attempt = 0; attempt < 50; attempt++) {
+            try (Socket ignored = new Socket(address.getAddress(), address.getPort())) {
+                return;
+            } catch (IOException e) {
+                Thread.sleep(100);
+            }
+        }
+        throw new AssertionError("Primary is not listening on " + address);
+    }
+}
@@ -0,0 +1,95 @@
+package main.com.pyratron.pugmatt.bedrockconnect.loadtest;
+
+import io.netty.util.AsciiString;
+
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.Signature;
+import java.security.spec.ECGenParameterSpec;
+import java.util.Base64;
+import java.util.UUID;
+
+/**
+ * Builds the login tokens of an offline (not Xbox Live signed) client.
+ *
+ * The chain is a single self-signed link, which BedrockConnect accepts like any offline login: it does not start
+ * from Mojang's key, but the skin token is still checked against the chain's identity key. One key pair is shared by all simulated clients so
+ * starting thousands of them does not spend the CPU the server is being measured with; each client still gets
+ * its own identity and tokens, so nothing is served from the server's verified link cache.
+ */
+public class ClientChain {
+
+    private static final Base64.Encoder URL_ENCODER = Base64.getUrlEncoder().withoutPadding();
+    // P-384 signatures are two 48 byte integers
+    private static final int INTEGER_SIZE = 48;
+
+    private final KeyPair keyPair;
+    private final String publicKey;
+
+    public ClientChain() throws GeneralSecurityException {
+        KeyPairGenerator generator = KeyPairGenerator.getInstance("EC");
+        generator.initialize(new ECGenParameterSpec("secp384r1"));
+        this.keyPair = generator.generateKeyPair();
+        this.publicKey = Base64.getEncoder().encodeToString(keyPair.getPublic().getEncoded());
+    }
+
+    /**
+     * @return {"chain":[token]} for the player, as the LoginPacket carries it
+     */
+    public AsciiString createChainData(String name, UUID identity) throws GeneralSecurityException {
+        long now = System.currentTimeMillis() / 1000;
+        String payload = "{\"certificateAuthority\":true"
+                + ",\"nbf\":" + (now - 60)
+                + ",\"exp\":" + (now + 24 * 60 * 60)
+                + ",\"identityPublicKey\":\"" + publicKey + "\""
+                + ",\"extraData\":{\"identity\":\"" + identity + "\",\"displayName\":\"" + name + "\",\"XUID\":\"\"}}";
+        return new AsciiString("{\"chain\":[\"" + sign(payload) + "\"]}");
+    }
+
+    /**
+     * @return A skin token with the fields the server reads, signed with the identity key
+     */
+    public AsciiString createSkinData(String name) throws GeneralSecurityException {
+        String payload = "{\"ThirdPartyName\":\"" + name + "\",\"DeviceOS\":7,\"GameVersion\":\"\",\"LanguageCode\":\"en_US\""
+                + ",\"SkinId\":\"Standard_Custom\",\"SkinImageWidth\":0,\"SkinImageHeight\":0,\"SkinData\":\"\"}";
+        return new AsciiString(sign(payload));
+    }
+
+    private String sign(String payload) throws GeneralSecurityException {
+        String header = "{\"alg\":\"ES384\",\"x5u\":\"" + publicKey + "\"}";
+        String signed = URL_ENCODER.encodeToString(header.getBytes(StandardCharsets.UTF_8)) + "."
+                + URL_ENCODER.encodeToString(payload.getBytes(StandardCharsets.UTF_8));
+
+        Signature signature = Signature.getInstance("SHA384withECDSA");
+        signature.initSign(keyPair.getPrivate());
+        signature.update(signed.getBytes(StandardCharsets.US_ASCII));
+        return signed + "." + URL_ENCODER.encodeToString(toJose(signature.sign()));
+    }
+
+    /**
+     * Java signs ECDSA as DER, JWS wants R || S
+     */
+    private static byte[] toJose(byte[] der) {
+        int offset = (der[1] & 0x80) != 0 ? 3 : 2;
+        byte[] jose = new byte[INTEGER_SIZE * 2];
+
+        int rLength = der[offset + 1];
+        copyInteger(der, offset + 2, rLength, jose, 0);
+        offset += 2 + rLength;
+
+        int sLength = der[offset + 1];
+        copyInteger(der, offset + 2, sLength, jose, INTEGER_SIZE);
+        return jose;
+    }
+
+    private static void copyInteger(byte[] der, int offset, int length, byte[] out, int outOffset) {
+        // Drop the sign padding, then right align
+        while (length > INTEGER_SIZE) {
+            offset++;
+            length--;
+        }
+        System.arraycopy(der, offset, out, outOffset + INTEGER_SIZE - length, length);
+    }
+}
@@ -0,0 +1,84 @@
+package main.com.pyratron.pugmatt.bedrockconnect.loadtest;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Lock free latency histogram, recorded from the network threads.
+ *
+ * Buckets are logarithmic with 16 linear sub-buckets per power of two, so any value is reported within about 6%,
+ * from one microsecond up to over an hour.
+ */
+public class LatencyHistogram {
+
+    private static final int SUB_BUCKET_BITS = 4;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int BUCKETS = (64 - SUB_BUCKET_BITS + 1) * SUB_BUCKETS;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final AtomicLong count = new AtomicLong();
+    private final AtomicLong total = new AtomicLong();
+    private final AtomicLong max = new AtomicLong();
+
+    public void record(long nanos) {
+        long micros = Math.max(0, TimeUnit.NANOSECONDS.toMicros(nanos));
+        counts.incrementAndGet(bucketOf(micros));
+        count.incrementAndGet();
+        total.addAndGet(micros);
+        max.accumulateAndGet(micros, Math::max);
+    }
+
+    public long getCount() {
+        return count.get();
+    }
+
+    /**
+     * @param percentile Between 0 and 100
+     * @return Upper bound of the bucket holding the percentile, in microseconds
+     */
+    public long getPercentile(double percentile) {
+        long count = this.count.get();
+        if (count == 0)
+            return 0;
+        long rank = Math.max(1, (long) Math.ceil(count * percentile / 100));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += counts.get(i);
+            if (seen >= rank)
+                return Math.min(upperBoundOf(i), max.get());
+        }
+        return max.get();
+    }
+
+    /**
+     * @return One line summary, in milliseconds
+     */
+    public String summary() {
+        long count = this.count.get();
+        if (count == 0)
+            return "n=0";
+        return String.format("n=%d mean=%.1f p50=%.1f p90=%.1f p99=%.1f p99.9=%.1f max=%.1f",
+                count, total.get() / 1000.0 / count,
+                getPercentile(50) / 1000.0, getPercentile(90) / 1000.0, getPercentile(99) / 1000.0,
+                getPercentile(99.9) / 1000.0, max.get() / 1000.0);
+    }
+
+    private static int bucketOf(long micros) {
+        if (micros < SUB_BUCKETS)
+            return (int) micros;
+        // Shift so the value keeps SUB_BUCKET_BITS + 1 significant bits, the top one is implied by the magnitude
+        int shift = 63 - Long.numberOfLeadingZeros(micros) - SUB_BUCKET_BITS;
+        int sub = (int) (micros >>> shift) - SUB_BUCKETS;
+        return (shift + 1) * SUB_BUCKETS + sub;
+    }
+
+    private static long upperBoundOf(int bucket) {
+        if (bucket < SUB_BUCKETS)
+            return bucket;
+        int shift = bucket / SUB_BUCKETS - 1;
+        long sub = bucket % SUB_BUCKETS;
+        long bound = ((SUB_BUCKETS + sub + 1) << shift) - 1;
+        return bound < 0 ? Long.MAX_VALUE : bound;
+    }
+}
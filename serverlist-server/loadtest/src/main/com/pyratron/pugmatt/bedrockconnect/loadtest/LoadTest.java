@@ -0,0 +1,162 @@
+package main.com.pyratron.pugmatt.bedrockconnect.loadtest;
+
+import com.nukkitx.protocol.bedrock.BedrockPacketCodec;
+import com.nukkitx.protocol.bedrock.v419.Bedrock_v419;
+import com.nukkitx.protocol.bedrock.v422.Bedrock_v422;
+import com.nukkitx.protocol.bedrock.v428.Bedrock_v428;
+import com.nukkitx.protocol.bedrock.v431.Bedrock_v431;
+import com.nukkitx.protocol.bedrock.v440.Bedrock_v440;
+
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Connects simulated players to a BedrockConnect server and reports how long each step of their visit took.
+ *
+ * Clients are started at a fixed rate with a cap on how many are connected at once, and each one logs in, goes
+ * through the resource pack handshake, waits for the main form, clicks a server and leaves once it is transferred.
+ * Run the server with test_mode=true, or it will rate limit the clients since they all come from one address.
+ */
+public class LoadTest {
+
+    private static final BedrockPacketCodec[] CODECS = {
+            Bedrock_v419.V419_CODEC,
+            Bedrock_v422.V422_CODEC,
+            Bedrock_v428.V428_CODEC,
+            Bedrock_v431.V431_CODEC,
+            Bedrock_v440.V440_CODEC
+    };
+
+    private static InetSocketAddress target = new InetSocketAddress("127.0.0.1", 19132);
+    private static int clients = 1000;
+    private static int rate = 100;
+    private static int concurrency = 500;
+    private static int protocol = Bedrock_v431.V431_CODEC.getProtocolVersion();
+    // With user servers on, the first button after connect, remove and exit: a custom or featured server
+    private static int button = 3;
+    private static int timeout = 30;
+
+    private static final LatencyHistogram[] histograms = new LatencyHistogram[Phase.values().length];
+    private static final Map<String, LongAdder> failures = new ConcurrentHashMap<>();
+    private static final AtomicInteger succeeded = new AtomicInteger();
+    private static final AtomicInteger failed = new AtomicInteger();
+    private static final AtomicInteger started = new AtomicInteger();
+
+    public static void main(String[] args) throws Exception {
+        for (String str : args) {
+            if (str.startsWith("address=")) {
+                String address = getArgValue(str, "address");
+                int colon = address.lastIndexOf(':');
+                target = colon < 0
+                        ? new InetSocketAddress(address, 19132)
+                        : new InetSocketAddress(address.substring(0, colon), Integer.parseInt(address.substring(colon + 1)));
+            }
+            if (str.startsWith("clients="))
+                clients = Integer.parseInt(getArgValue(str, "clients"));
+            if (str.startsWith("rate="))
+                rate = Integer.parseInt(getArgValue(str, "rate"));
+            if (str.startsWith("concurrency="))
+                concurrency = Integer.parseInt(getArgValue(str, "concurrency"));
+            if (str.startsWith("protocol="))
+                protocol = Integer.parseInt(getArgValue(str, "protocol"));
+            if (str.startsWith("button="))
+                button = Integer.parseInt(getArgValue(str, "button"));
+            if (str.startsWith("timeout="))
+                timeout = Integer.parseInt(getArgValue(str, "timeout"));
+        }
+
+        BedrockPacketCodec codec = null;
+        for (BedrockPacketCodec c : CODECS) {
+            if (c.getProtocolVersion() == protocol)
+                codec = c;
+        }
+        if (codec == null) {
+            System.out.println("Unsupported protocol " + protocol);
+            return;
+        }
+
+        for (int i = 0; i < histograms.length; i++)
+            histograms[i] = new LatencyHistogram();
+
+        System.out.println("-= BedrockConnect Load Test =-");
+        System.out.println("Target: " + target + "\nClients: " + clients + "\nRate: " + rate + "/s\nConcurrency: "
+                + concurrency + "\nProtocol: " + protocol + "\nButton: " + button + "\n");
+
+        ClientChain chain = new ClientChain();
+        Semaphore slots = new Semaphore(concurrency);
+        CountDownLatch finished = new CountDownLatch(clients);
+        ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "Load Test Timer");
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        long begin = System.nanoTime();
+        timer.scheduleAtFixedRate(() -> printProgress(begin, slots), 1, 1, TimeUnit.SECONDS);
+
+        long interval = TimeUnit.SECONDS.toNanos(1) / Math.max(1, rate);
+        for (int i = 0; i < clients; i++) {
+            long wait = begin + i * interval - System.nanoTime();
+            if (wait > 0)
+                TimeUnit.NANOSECONDS.sleep(wait);
+            slots.acquire();
+
+            String name = "LoadTest" + i;
+            UUID identity = UUID.nameUUIDFromBytes(name.getBytes(StandardCharsets.UTF_8));
+            SimulatedClient client = new SimulatedClient(name, identity, chain, codec, button, histograms,
+                    (c, success, reason) -> {
+                        if (success) {
+                            succeeded.incrementAndGet();
+                        } else {
+                            failed.incrementAndGet();
+                            failures.computeIfAbsent(reason, r -> new LongAdder()).increment();
+                        }
+                        slots.release();
+                        finished.countDown();
+                    });
+            started.incrementAndGet();
+            client.start(target);
+            // Does nothing if the client is done by then
+            timer.schedule(() -> client.fail("timed out in " + client.getPhase().getLabel()), timeout, TimeUnit.SECONDS);
+        }
+
+        finished.await();
+        long elapsed = System.nanoTime() - begin;
+
+        System.out.println("\nDone in " + String.format("%.1f", elapsed / 1e9) + " s");
+        System.out.println("Succeeded: " + succeeded.get() + ", failed: " + failed.get());
+        System.out.println("Throughput: " + String.format("%.1f", succeeded.get() / (elapsed / 1e9)) + " transfers/s\n");
+        System.out.println("Latency per phase (ms):");
+        for (Phase phase : Phase.values())
+            System.out.println(String.format("  %-9s %s", phase.getLabel(), histograms[phase.ordinal()].summary()));
+        if (!failures.isEmpty()) {
+            System.out.println("\nFailures:");
+            for (Map.Entry<String, LongAdder> failure : failures.entrySet())
+                System.out.println("  " + failure.getValue().sum() + " x " + failure.getKey());
+        }
+        System.exit(failed.get() == 0 ? 0 : 1);
+    }
+
+    private static void printProgress(long begin, Semaphore slots) {
+        long seconds = TimeUnit.NANOSECONDS.toSeconds(System.nanoTime() - begin);
+        System.out.println(String.format("[%3ds] started=%d succeeded=%d failed=%d connected=%d",
+                seconds, started.get(), succeeded.get(), failed.get(), concurrency - slots.availablePermits()));
+    }
+
+    public static String getArgValue(String str, String name) {
+        String target = name + "=";
+        int index = str.indexOf(target);
+        int subIndex = index + target.length();
+        return str.substring(subIndex);
+    }
+}
@@ -0,0 +1,31 @@
+package main.com.pyratron.pugmatt.bedrockconnect.loadtest;
+
+/**
+ * Steps of a simulated client's visit, each timed from the end of the previous one
+ */
+public enum Phase {
+    /** RakNet connection until the session is open */
+    CONNECT("connect"),
+    /** LoginPacket sent until LOGIN_SUCCESS, covers chain verification */
+    LOGIN("login"),
+    /** LOGIN_SUCCESS until StartGame, covers the resource pack handshake and loading player data */
+    JOIN("join"),
+    /** StartGame until PLAYER_SPAWN */
+    SPAWN("spawn"),
+    /** Initialized until the main form arrives */
+    FORM("form"),
+    /** Button clicked until the TransferPacket arrives */
+    TRANSFER("transfer"),
+    /** Whole visit */
+    TOTAL("total");
+
+    private final String label;
+
+    Phase(String label) {
+        this.label = label;
+    }
+
+    public String getLabel() {
+        return label;
+    }
+}
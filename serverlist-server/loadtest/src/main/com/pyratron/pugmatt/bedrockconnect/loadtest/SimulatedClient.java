@@ -0,0 +1,216 @@
+package main.com.pyratron.pugmatt.bedrockconnect.loadtest;
+
+import com.nukkitx.protocol.bedrock.BedrockClient;
+import com.nukkitx.protocol.bedrock.BedrockClientSession;
+import com.nukkitx.protocol.bedrock.BedrockPacket;
+import com.nukkitx.protocol.bedrock.BedrockPacketCodec;
+import com.nukkitx.protocol.bedrock.handler.BedrockPacketHandler;
+import com.nukkitx.protocol.bedrock.packet.*;
+
+import java.net.InetSocketAddress;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * One player going through the serverlist: login, resource pack handshake, spawn, main form, button click and
+ * transfer. Packets are handled on the client's network thread.
+ */
+public class SimulatedClient implements BedrockPacketHandler {
+
+    private static final int CHUNK_RADIUS = 8;
+
+    /**
+     * Told once when the client is done, successfully or not
+     */
+    public interface Listener {
+        void finished(SimulatedClient client, boolean success, String reason);
+    }
+
+    private final String name;
+    private final UUID identity;
+    private final ClientChain chain;
+    private final BedrockPacketCodec codec;
+    private final int button;
+    private final LatencyHistogram[] histograms;
+    private final Listener listener;
+
+    private final AtomicBoolean done = new AtomicBoolean();
+    private BedrockClient client;
+    private volatile BedrockClientSession session;
+
+    private volatile Phase phase = Phase.CONNECT;
+    private volatile long started;
+    private volatile long phaseStarted;
+
+    private long runtimeEntityId;
+    private boolean spawned;
+    private boolean clicked;
+
+    /**
+     * @param button Main form button to click, it has to transfer the player
+     * @param histograms One per {@link Phase}, by ordinal
+     */
+    public SimulatedClient(String name, UUID identity, ClientChain chain, BedrockPacketCodec codec, int button,
+                           LatencyHistogram[] histograms, Listener listener) {
+        this.name = name;
+        this.identity = identity;
+        this.chain = chain;
+        this.codec = codec;
+        this.button = button;
+        this.histograms = histograms;
+        this.listener = listener;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public Phase getPhase() {
+        return phase;
+    }
+
+    public void start(InetSocketAddress target) {
+        started = phaseStarted = System.nanoTime();
+
+        client = new BedrockClient(new InetSocketAddress("0.0.0.0", 0));
+        client.bind().thenCompose(ignored -> client.connect(target)).whenComplete((session, error) -> {
+            if (error != null) {
+                fail("connect failed: " + error.getClass().getSimpleName());
+                return;
+            }
+            this.session = session;
+            session.setPacketCodec(codec);
+            session.setPacketHandler(this);
+            session.addDisconnectHandler(reason -> fail("disconnected: " + reason));
+            completed(Phase.CONNECT, Phase.LOGIN);
+
+            try {
+                LoginPacket login = new LoginPacket();
+                login.setProtocolVersion(codec.getProtocolVersion());
+                login.setChainData(chain.createChainData(name, identity));
+                login.setSkinData(chain.createSkinData(name));
+                session.sendPacketImmediately(login);
+            } catch (Exception e) {
+                fail("login failed: " + e);
+            }
+        });
+    }
+
+    /**
+     * Gives up on the client, e.g. when it timed out
+     */
+    public void fail(String reason) {
+        finish(false, reason);
+    }
+
+    @Override
+    public boolean handle(PlayStatusPacket packet) {
+        switch (packet.getStatus()) {
+            case LOGIN_SUCCESS:
+                completed(Phase.LOGIN, Phase.JOIN);
+                break;
+            case PLAYER_SPAWN:
+                // Sent again in answer to the chunk radius request
+                if (spawned)
+                    break;
+                spawned = true;
+                completed(Phase.SPAWN, Phase.FORM);
+
+                SetLocalPlayerAsInitializedPacket initialized = new SetLocalPlayerAsInitializedPacket();
+                initialized.setRuntimeEntityId(runtimeEntityId);
+                send(initialized);
+                break;
+            default:
+                fail("play status " + packet.getStatus());
+                break;
+        }
+        return true;
+    }
+
+    @Override
+    public boolean handle(ResourcePacksInfoPacket packet) {
+        ResourcePackClientResponsePacket response = new ResourcePackClientResponsePacket();
+        response.setStatus(ResourcePackClientResponsePacket.Status.HAVE_ALL_PACKS);
+        send(response);
+        return true;
+    }
+
+    @Override
+    public boolean handle(ResourcePackStackPacket packet) {
+        ResourcePackClientResponsePacket response = new ResourcePackClientResponsePacket();
+        response.setStatus(ResourcePackClientResponsePacket.Status.COMPLETED);
+        send(response);
+        return true;
+    }
+
+    @Override
+    public boolean handle(StartGamePacket packet) {
+        runtimeEntityId = packet.getRuntimeEntityId();
+        completed(Phase.JOIN, Phase.SPAWN);
+
+        RequestChunkRadiusPacket radius = new RequestChunkRadiusPacket();
+        radius.setRadius(CHUNK_RADIUS);
+        send(radius);
+        return true;
+    }
+
+    @Override
+    public boolean handle(ModalFormRequestPacket packet) {
+        if (clicked)
+            return true;
+        if (packet.getFormId() != 0) {
+            fail("unexpected form " + packet.getFormId());
+            return true;
+        }
+        clicked = true;
+        completed(Phase.FORM, Phase.TRANSFER);
+
+        ModalFormResponsePacket response = new ModalFormResponsePacket();
+        response.setFormId(packet.getFormId());
+        response.setFormData(Integer.toString(button));
+        send(response);
+        return true;
+    }
+
+    @Override
+    public boolean handle(TransferPacket packet) {
+        completed(Phase.TRANSFER, null);
+        finish(true, null);
+        return true;
+    }
+
+    @Override
+    public boolean handle(DisconnectPacket packet) {
+        fail("kicked: " + packet.getKickMessage());
+        return true;
+    }
+
+    private void send(BedrockPacket packet) {
+        BedrockClientSession session = this.session;
+        if (session != null && !session.isClosed())
+            session.sendPacketImmediately(packet);
+    }
+
+    private void completed(Phase completed, Phase next) {
+        long now = System.nanoTime();
+        histograms[completed.ordinal()].record(now - phaseStarted);
+        phaseStarted = now;
+        if (next != null)
+            phase = next;
+    }
+
+    private void finish(boolean success, String reason) {
+        if (!done.compareAndSet(false, true))
+            return;
+        if (success)
+            histograms[Phase.TOTAL.ordinal()].record(System.nanoTime() - started);
+
+        BedrockClientSession session = this.session;
+        if (session != null && !session.isClosed())
+            session.disconnect();
+        if (client != null)
+            client.close();
+
+        listener.finished(this, success, reason);
+    }
+}
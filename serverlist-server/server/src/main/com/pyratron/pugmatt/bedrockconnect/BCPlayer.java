@@ -8,27 +8,41 @@ import com.nukkitx.nbt.NbtMapBuilder;
 import com.nukkitx.nbt.NbtUtils;
 import com.nukkitx.protocol.bedrock.Bedrock;
 import com.nukkitx.protocol.bedrock.BedrockPacket;
+import com.nukkitx.protocol.bedrock.BedrockPacketCodec;
 import com.nukkitx.protocol.bedrock.BedrockServerSession;
+import com.nukkitx.protocol.bedrock.BedrockSession;
 import com.nukkitx.protocol.bedrock.data.*;
 import com.nukkitx.protocol.bedrock.data.inventory.ContainerId;
 import com.nukkitx.protocol.bedrock.data.inventory.ItemData;
 import com.nukkitx.protocol.bedrock.packet.*;
 import com.nukkitx.math.vector.Vector3f;
+import io.netty.buffer.ByteBuf;
+import io.netty.util.Timeout;
+import main.com.pyratron.pugmatt.bedrockconnect.gui.MainFormRenderer;
 import main.com.pyratron.pugmatt.bedrockconnect.gui.UIComponents;
 import main.com.pyratron.pugmatt.bedrockconnect.gui.UIForms;
 import main.com.pyratron.pugmatt.bedrockconnect.sql.Data;
+import main.com.pyratron.pugmatt.bedrockconnect.utils.AssetBundle;
+import main.com.pyratron.pugmatt.bedrockconnect.utils.EncodedBatch;
+import main.com.pyratron.pugmatt.bedrockconnect.utils.Scheduler;
 
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.time.Duration;
-import java.time.LocalTime;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
 
 public class BCPlayer {
 
     private BedrockServerSession session;
     private List<String> serverList = new ArrayList<>();
+    // Rendered main form for serverList, cleared whenever the list is set
+    private volatile String mainFormData;
+    // Server status generation the form was last checked against
+    private volatile long mainFormGeneration;
 
     private int serverLimit;
 
@@ -36,10 +50,36 @@ public class BCPlayer {
 
     private String uuid;
 
-    private LocalTime lastAction;
-
-    private int currentForm = 0;
-    private LocalTime movementOpenCoolDown = LocalTime.now();
+    private static final long IDLE_TIMEOUT = TimeUnit.MINUTES.toNanos(10);
+    private static final long MOVEMENT_OPEN_COOLDOWN = TimeUnit.SECONDS.toNanos(1);
+
+    // Scheduler.now() timestamps
+    private volatile long lastAction;
+    private Timeout idleTimeout;
+    private boolean idleTimerStopped;
+
+    // Only changed through openForm, each session's packets are handled on its own event loop
+    private volatile int currentForm = UIForms.MAIN;
+    private long movementOpenCoolDown = Scheduler.now();
+
+    // Built by the first player of a version, outside the map, while later players of that version wait for it
+    private static final Map<Integer, FutureTask<JoinSequence>> JOIN_SEQUENCES = new ConcurrentHashMap<>();
+
+    /**
+     * Outcome of preparing the join sequence of one protocol version, failures included so they are not retried
+     * on every join
+     */
+    private static class JoinSequence {
+        // Encoded and compressed, or null if encoding failed
+        final ByteBuf batch;
+        // Only kept when encoding failed, to send the packets one by one. Null if the tables could not be loaded
+        final AssetBundle assets;
+
+        JoinSequence(ByteBuf batch, AssetBundle assets) {
+            this.batch = batch;
+            this.assets = assets;
+        }
+    }
 
     private static final NbtMap EMPTY_TAG = NbtMap.EMPTY;
     private static final byte[] EMPTY_LEVEL_CHUNK_DATA;
@@ -65,7 +105,7 @@ public class BCPlayer {
         this.session = session;
         this.serverList = serverList;
         this.serverLimit = serverLimit;
-        this.lastAction = LocalTime.now();
+        this.lastAction = Scheduler.now();
 
         if(session != null && !session.isClosed())
         joinGame();
@@ -87,6 +127,23 @@ public class BCPlayer {
     public void setServerList(List<String> serverList) {
         data.setValueString("servers", UIComponents.serversToFormData(serverList), serverList, uuid);
         this.serverList = serverList;
+        mainFormData = null;
+    }
+
+    public String getMainFormData() {
+        String formData = mainFormData;
+        // Read before rendering, a status that changes while rendering is then picked up next time
+        long generation = ServerStatus.getGeneration();
+        if (formData != null && mainFormGeneration == generation)
+            return formData;
+
+        MainFormRenderer renderer = UIForms.getMainRenderer();
+        if (formData == null || renderer.isStale(serverList, mainFormGeneration)) {
+            formData = renderer.render(serverList);
+            mainFormData = formData;
+        }
+        mainFormGeneration = generation;
+        return formData;
     }
 
     public String getUuid() {
@@ -102,13 +159,31 @@ public class BCPlayer {
         this.serverLimit = serverLimit;
     }
 
+    /**
+     * @return Id of the last form sent to this player, which their form responses are handled against
+     */
     public int getCurrentForm() {
         return currentForm;
     }
 
-    public void setCurrentForm(int form) {
-        currentForm = form;
+    /**
+     * Sends a form and makes it the player's current form
+     */
+    public void openForm(ModalFormRequestPacket form) {
+        currentForm = form.getFormId();
+        session.sendPacketImmediately(form);
+    }
+
+    /**
+     * Sends a form and tells the player how to bring it back if it does not show up
+     */
+    public void openForm(ModalFormRequestPacket form, boolean showReopenHint) {
+        openForm(form);
+        if (showReopenHint)
+            sendReopenHint();
+    }
 
+    private void sendReopenHint() {
         TextPacket text = new TextPacket();
         text.setType(TextPacket.Type.TIP);
         text.setMessage("==!!== Move around to re-trigger the popup ==!!==");
@@ -122,13 +197,36 @@ public class BCPlayer {
         session.sendPacket(text2);
     }
 
-    public boolean isActive() { return Duration.between(lastAction, LocalTime.now()).toMillis() <= 600000; }
+    public boolean isActive() { return Scheduler.now() - lastAction <= IDLE_TIMEOUT; }
 
-    public boolean canMovementOpen() { return Duration.between(movementOpenCoolDown, LocalTime.now()).toMillis() > 1000; }
+    public boolean canMovementOpen() { return Scheduler.now() - movementOpenCoolDown > MOVEMENT_OPEN_COOLDOWN; }
 
-    public void resetMovementOpen() { movementOpenCoolDown = LocalTime.now(); }
+    public void resetMovementOpen() { movementOpenCoolDown = Scheduler.now(); }
 
-    public void setActive() { lastAction = LocalTime.now(); }
+    public void setActive() { lastAction = Scheduler.now(); }
+
+    /**
+     * Disconnects the player once they have been inactive for the idle timeout.
+     * Activity only updates a timestamp; when the timer fires early it is set again for the time left.
+     */
+    public synchronized void kickWhenIdle(Server server) {
+        if (idleTimerStopped)
+            return;
+        long left = lastAction + IDLE_TIMEOUT - Scheduler.now();
+        if (left < 0) {
+            disconnect("长时间无活动", server);
+            return;
+        }
+        idleTimeout = Scheduler.schedule(() -> kickWhenIdle(server), left + 1, TimeUnit.NANOSECONDS);
+    }
+
+    public synchronized void stopIdleTimer() {
+        idleTimerStopped = true;
+        if (idleTimeout != null) {
+            idleTimeout.cancel();
+            idleTimeout = null;
+        }
+    }
 
     public void movementOpen() {
 
@@ -138,7 +236,7 @@ public class BCPlayer {
 
             switch (getCurrentForm()) {
                 case UIForms.MAIN:
-                    form = UIForms.createMain(getServerList());
+                    form = UIForms.createMain(this);
                     break;
                 case UIForms.DIRECT_CONNECT:
                     form = UIForms.createDirectConnect();
@@ -147,17 +245,94 @@ public class BCPlayer {
                     form = UIForms.createRemoveServer(getServerList());
                     break;
                 default:
-                    form = UIForms.createMain(getServerList());
+                    form = UIForms.createMain(this);
                     break;
             }
 
-            session.sendPacketImmediately(form);
+            openForm(form);
 
-            movementOpenCoolDown = LocalTime.now();
+            movementOpenCoolDown = Scheduler.now();
         }
     }
 
+    /**
+     * Sends the join sequence. It is the same for every player, so it is encoded and compressed once
+     * per protocol version, when the first player of that version joins, and the shared batch is copied
+     * to each session. Players of that version joining meanwhile wait for the first one to finish, without
+     * holding up other versions. If encoding fails the packets are sent one by one from the tables loaded for it,
+     * and if the tables can not be loaded the player is disconnected. Either way the tables are only read once
+     * per version.
+     */
     public void joinGame() {
+        JoinSequence join = getJoinSequence(session.getPacketCodec(), session);
+
+        if (join != null && join.batch != null) {
+            EncodedBatch.send(session, join.batch);
+        } else if (join != null && join.assets != null) {
+            for (BedrockPacket packet : createJoinPackets(join.assets))
+                session.sendPacket(packet);
+        } else {
+            session.disconnect("We had some trouble loading the serverlist. Please report this to the BedrockConnect discord.");
+        }
+    }
+
+    /**
+     * @return The join sequence of the codec's version, prepared by this thread if it is the first to ask.
+     *         Null if preparing it failed unexpectedly or the wait was interrupted.
+     */
+    private static JoinSequence getJoinSequence(BedrockPacketCodec codec, BedrockSession session) {
+        int version = codec.getProtocolVersion();
+        FutureTask<JoinSequence> task = JOIN_SEQUENCES.get(version);
+        if (task == null) {
+            FutureTask<JoinSequence> created = new FutureTask<>(() -> prepareJoinSequence(codec, session));
+            task = JOIN_SEQUENCES.putIfAbsent(version, created);
+            if (task == null) {
+                task = created;
+                created.run();
+            }
+        }
+
+        try {
+            return task.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        } catch (ExecutionException e) {
+            System.out.println("Unable to prepare the join sequence for protocol " + version + ": " + e.getCause());
+            return null;
+        }
+    }
+
+    private static JoinSequence prepareJoinSequence(BedrockPacketCodec codec, BedrockSession session) {
+        int version = codec.getProtocolVersion();
+        AssetBundle assets;
+        try {
+            assets = AssetBundle.load(version);
+        } catch (Exception e) {
+            System.out.println("Unable to load the tables for protocol " + version + ": " + e.getMessage());
+            return new JoinSequence(null, null);
+        }
+
+        try {
+            return new JoinSequence(encodeJoinSequence(codec, assets, session), null);
+        } catch (Exception e) {
+            System.out.println("Unable to pre-encode the join sequence for protocol " + version + ": " + e.getMessage());
+            return new JoinSequence(null, assets);
+        }
+    }
+
+    /**
+     * Encodes and compresses the join sequence, as {@link #joinGame()} does once per protocol version.
+     * None of the join packets use the session, so it may be null.
+     * @param assets Tables for the codec's protocol version
+     * @return A read-only buffer holding one reference for the caller
+     */
+    public static ByteBuf encodeJoinSequence(BedrockPacketCodec codec, AssetBundle assets, BedrockSession session) {
+        return EncodedBatch.encode(codec, createJoinPackets(assets), session);
+    }
+
+    private static List<BedrockPacket> createJoinPackets(AssetBundle assets) {
+        List<BedrockPacket> packets = new ArrayList<>();
 
         MovePlayerPacket mp = new MovePlayerPacket();
         mp.setRuntimeEntityId(1);
@@ -165,7 +340,7 @@ public class BCPlayer {
         mp.setMode(MovePlayerPacket.Mode.NORMAL);
         mp.setRotation(Vector3f.from(0,0,0));
         mp.setPosition(Vector3f.from(0,0,0));
-        session.sendPacket(mp);
+        packets.add(mp);
 
         StartGamePacket startGamePacket = new StartGamePacket();
         startGamePacket.setUniqueEntityId(1);
@@ -227,19 +402,14 @@ public class BCPlayer {
         startGamePacket.setMultiplayerCorrelationId("");
         startGamePacket.setServerEngine("");
 
-        startGamePacket.setBlockPalette(BedrockConnect.paletteManager.CACHED_PALLETE);
+        startGamePacket.setBlockPalette(assets.blockPalette);
 
-        session.sendPacket(startGamePacket);
+        packets.add(startGamePacket);
 
         // Required to be sent for 1.16.100
         CreativeContentPacket creativeContentPacket = new CreativeContentPacket();
         creativeContentPacket.setContents(new ItemData[0]);
-        session.sendPacket(creativeContentPacket);
-
-        spawn();
-    }
-
-    public void spawn() {
+        packets.add(creativeContentPacket);
 
         Vector3f pos = Vector3f.ZERO;
         int chunkX = pos.getFloorX() >> 4;
@@ -252,21 +422,21 @@ public class BCPlayer {
                 data2.setChunkZ(chunkZ + z);
                 data2.setSubChunksLength(0);
                 data2.setData(EMPTY_LEVEL_CHUNK_DATA);
-                session.sendPacket(data2);
+                packets.add(data2);
             }
         }
 
         BiomeDefinitionListPacket biomePacket = new BiomeDefinitionListPacket();
-        biomePacket.setDefinitions(BedrockConnect.paletteManager.BIOMES);
-        session.sendPacket(biomePacket);
+        biomePacket.setDefinitions(assets.biomes);
+        packets.add(biomePacket);
 
         AvailableEntityIdentifiersPacket entityPacket = new AvailableEntityIdentifiersPacket();
-        entityPacket.setIdentifiers(BedrockConnect.paletteManager.ENTITY_IDENTIFIERS);
-        session.sendPacket(entityPacket);
+        entityPacket.setIdentifiers(assets.entityIdentifiers);
+        packets.add(entityPacket);
 
         PlayStatusPacket playStatus = new PlayStatusPacket();
         playStatus.setStatus(PlayStatusPacket.Status.PLAYER_SPAWN);
-        session.sendPacket(playStatus);
+        packets.add(playStatus);
 
         UpdateAttributesPacket attributesPacket = new UpdateAttributesPacket();
         attributesPacket.setRuntimeEntityId(0);
@@ -275,6 +445,8 @@ public class BCPlayer {
         // Bedrock clients move very fast by default until they get an attribute packet correcting the speed
         attributes.add(new AttributeData("minecraft:movement", 0.0f, 1024f, 0.1f, 0.1f));
         attributesPacket.setAttributes(attributes);
-        session.sendPacket(attributesPacket);
+        packets.add(attributesPacket);
+
+        return packets;
     }
 }
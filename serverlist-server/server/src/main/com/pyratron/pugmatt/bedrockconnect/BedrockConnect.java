@@ -1,10 +1,10 @@
 package main.com.pyratron.pugmatt.bedrockconnect;
 
+import main.com.pyratron.pugmatt.bedrockconnect.dns.DNSConfig;
 import main.com.pyratron.pugmatt.bedrockconnect.dns.DNSResolver;
 import main.com.pyratron.pugmatt.bedrockconnect.sql.Data;
 import main.com.pyratron.pugmatt.bedrockconnect.sql.MySQL;
-import main.com.pyratron.pugmatt.bedrockconnect.utils.PaletteManager;
-import org.xbill.DNS.Type;
+import main.com.pyratron.pugmatt.bedrockconnect.utils.Scheduler;
 
 import java.io.*;
 import java.net.*;
@@ -12,29 +12,36 @@ import java.sql.Connection;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
 
 public class BedrockConnect {
 
 
-    public static PaletteManager paletteManager;
-
     public static MySQL MySQL;
     public static Connection connection;
     public static Data data;
 
     public static Server server;
 
+    public static DNSConfig dnsConfig;
+    public static DNSResolver dnsResolver;
+    private static int dnsServerPort;
+
     public static boolean noDB = false;
     public static boolean whitelist = false;
     public static String customServers = null;
     public static boolean kickInactive = true;
+    public static int maxPlayers = 0;
     public static boolean userServers = true;
     public static boolean featuredServers = true;
+    public static boolean serverStatus = true;
+    public static boolean testMode = false;
     public static File whitelistfile;
 
     public static void main(String[] args) {
         System.out.println("-= BedrockConnect =-");
-        paletteManager =  new PaletteManager();
+        Scheduler.start();
 
         try {
             String hostname = "localhost";
@@ -43,15 +50,7 @@ public class BedrockConnect {
             String password = "";
             String port = "19132";
 
-            boolean useDNS =
-                System.getenv("BC_DNS_ON") != null && System.getenv("BC_DNS_ON").toLowerCase().equals("true");
-            String dnsIp =
-                System.getenv("BC_DNS_IP") == null ? "104.238.130.180" : System.getenv("BC_DNS_IP");
-            int dnsCacheSize =
-                System.getenv("BC_DNS_CACHE") == null ? 1000 : Integer.parseInt(System.getenv("BC_DNS_CACHE"));
-            DNSResolver dnsResolver = null;
-            boolean dnsRecurse =
-                System.getenv("BC_DNS_RECURSE") != null && System.getenv("BC_DNS_RECURSE").toLowerCase().equals("true");
+            dnsConfig = DNSConfig.load(args);
 
             String serverLimit = "100";
 
@@ -72,14 +71,6 @@ public class BedrockConnect {
                     noDB = getArgValue(str, "nodb").toLowerCase().equals("true");
                 if(str.startsWith("custom_servers="))
                     customServers = getArgValue(str, "custom_servers");
-                if(str.startsWith("dns-on="))
-                    useDNS = (getArgValue(str, "dns-on").toLowerCase().equals("true"));
-                if(str.startsWith("dns-ip="))
-                    dnsIp = getArgValue(str, "dns-ip");
-                if(str.startsWith("dns-recursive"))
-                    dnsRecurse = (getArgValue(str, "dns-recursive")).toLowerCase().equals("true");
-                if(str.startsWith("dns-cache"))
-                    dnsCacheSize = Integer.parseInt(getArgValue(str, "dns-cache"));
                 if(str.startsWith("generatedns=")) {
                     String ip;
                     try {
@@ -130,12 +121,21 @@ public class BedrockConnect {
                 if(str.startsWith("kick_inactive=")) {
                     kickInactive = getArgValue(str, "kick_inactive").toLowerCase().equals("true");
                 }
+                if(str.startsWith("max_players=")) {
+                    maxPlayers = Integer.parseInt(getArgValue(str, "max_players"));
+                }
                 if(str.startsWith("user_servers=")) {
                     userServers = getArgValue(str, "user_servers").toLowerCase().equals("true");
                 }
                 if (str.startsWith("featured_servers=")) {
                     featuredServers = getArgValue(str, "featured_servers").toLowerCase().equals("true");
                 }
+                if (str.startsWith("server_status=")) {
+                    serverStatus = getArgValue(str, "server_status").toLowerCase().equals("true");
+                }
+                if (str.startsWith("test_mode=")) {
+                    testMode = getArgValue(str, "test_mode").toLowerCase().equals("true");
+                }
                 if (str.startsWith("whitelist=")) {
                 	try {
                 		whitelistfile = new File(getArgValue(str, "whitelist"));
@@ -155,8 +155,14 @@ public class BedrockConnect {
 
             System.out.println("\nServer Limit: " + serverLimit + "\n" + "Port: " + port + "\n");
 
+            if (testMode)
+                System.out.println("Test mode: connections are not rate limited per address, do not use in production\n");
+
             CustomServerHandler.initialize();
             System.out.printf("Loaded %d custom servers\n", CustomServerHandler.getServers().length);
+
+            if (serverStatus)
+                ServerStatus.start();
             
             if (Whitelist.hasWhitelist()) {
             	System.out.printf("There are %d whitelisted players\n", Whitelist.getWhitelist().size());
@@ -171,73 +177,27 @@ public class BedrockConnect {
 
                 data = new Data(serverLimit);
 
-                // Keep MySQL connection alive
-                Timer timer = new Timer();
-                TimerTask task = new TimerTask() {
-                    int sec;
+                // Keep MySQL connection alive, off the timer thread as the queries can block
+                Scheduler.repeat(new Runnable() {
+                    int min;
 
                     public void run() {
-                        try {
-                            if (connection == null || connection.isClosed()) {
-                                connection = MySQL.openConnection();
-                            } else {
-                                if (sec == 600) {
-                                    try {
-                                        ResultSet rs = connection
-                                                .createStatement()
-                                                .executeQuery(
-                                                        "SELECT 1");
-                                        rs.next();
-                                    } catch (SQLException e) {
-                                        // TODO Auto-generated
-                                        // catch block
-                                        e.printStackTrace();
-                                    }
-                                    sec = 0;
-                                }
-                            }
-                        } catch (SQLException e) {
-                            // TODO Auto-generated catch block
-                            e.printStackTrace();
-                        }
-                        sec++;
+                        boolean ping = ++min >= 600;
+                        if (ping)
+                            min = 0;
+                        ForkJoinPool.commonPool().execute(() -> keepAlive(ping));
                     }
-                };
-                timer.scheduleAtFixedRate(task, 0L, 60 * 1000);
+                }, 1, TimeUnit.MINUTES);
             } else {
                 data = new Data(serverLimit);
-                Timer timer = new Timer();
-                TimerTask task = new TimerTask() {
-                    public void run() { }
-                };
-                timer.scheduleAtFixedRate(task, 0L, 1200L);
             }
 
-            if(useDNS) {
+            if(dnsConfig.enabled) {
                 System.out.println("Initializing DNS Server...");
-                dnsResolver = new DNSResolver(53, dnsCacheSize);
-                dnsResolver.setRecursive(dnsRecurse);
-                dnsResolver.putLocalEntry(Type.NS, "ns.hivebedrock.network.", "ns.hivebedrock.network.");
-                dnsResolver.putLocalEntry(Type.A, "hivebedrock.network.", dnsIp);
-
-                dnsResolver.putLocalEntry(Type.NS, "ns.mineplex.com.", "ns.mineplex.com.");
-                dnsResolver.putLocalEntry(Type.A, "mco.mineplex.com.", dnsIp);
-                dnsResolver.putLocalEntry(Type.A, "play.mineplex.com.", dnsIp);
-
-                dnsResolver.putLocalEntry(Type.NS, "ns.inpvp.net.", "ns.inpvp.net.");
-                dnsResolver.putLocalEntry(Type.A, "play.inpvp.net.", dnsIp);
-
-                dnsResolver.putLocalEntry(Type.NS, "ns.lbsg.net.", "ns.lbsg.net.");
-                dnsResolver.putLocalEntry(Type.A, "mco.lbsg.net.", dnsIp);
-                dnsResolver.putLocalEntry(Type.A, "play.lbsg.net.", dnsIp);
-
-                dnsResolver.putLocalEntry(Type.NS, "ns.cubecraft.net.", "ns.cubecraft.net.");
-                dnsResolver.putLocalEntry(Type.A, "mco.cubecraft.net.", dnsIp);
-
-                dnsResolver.putLocalEntry(Type.NS, "ns.galaxite.net.", "ns.galaxite.net.");
-                dnsResolver.putLocalEntry(Type.A, "play.galaxite.net.", dnsIp);
-
+                dnsServerPort = Integer.parseInt(port);
+                dnsResolver = dnsConfig.createResolver(dnsServerPort);
                 dnsResolver.start();
+                dnsConfig.watch(dnsResolver, dnsServerPort);
                 System.out.println("DNS resolver started.");
             }
             server = new Server(port);
@@ -247,6 +207,34 @@ public class BedrockConnect {
 
     }
 
+    /**
+     * Apply a changed DNS configuration without restarting the DNS server.
+     */
+    public static void reloadDNS() {
+        if(dnsResolver == null) {
+            System.out.println("The DNS server is not running.");
+            return;
+        }
+        try {
+            dnsConfig = dnsConfig.reload(dnsResolver, dnsServerPort);
+        } catch (Exception e) {
+            System.out.println("Unable to reload DNS configuration, keeping the current one: " + e.getMessage());
+        }
+    }
+
+    private static synchronized void keepAlive(boolean ping) {
+        try {
+            if (connection == null || connection.isClosed()) {
+                connection = MySQL.openConnection();
+            } else if (ping) {
+                ResultSet rs = connection.createStatement().executeQuery("SELECT 1");
+                rs.next();
+            }
+        } catch (SQLException e) {
+            e.printStackTrace();
+        }
+    }
+
     public static String getArgValue(String str, String name) {
         String target = name + "=";
         int index = str.indexOf(target);
@@ -0,0 +1,174 @@
+package main.com.pyratron.pugmatt.bedrockconnect;
+
+import main.com.pyratron.pugmatt.bedrockconnect.utils.Scheduler;
+
+import java.net.Inet4Address;
+import java.net.InetAddress;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Decides whether a RakNet connection request is accepted, before any session exists for it.
+ *
+ * Every address and every network (/24 for IPv4, /48 for IPv6) has a token bucket, and only so many
+ * sessions may be between connecting and having their player loaded at once.
+ */
+public class ConnectionLimiter {
+
+    private static final int ADDRESS_BURST = 10;
+    private static final double ADDRESS_PER_SECOND = 0.5;
+    private static final int PREFIX_BURST = 50;
+    private static final double PREFIX_PER_SECOND = 5;
+    private static final int MAX_HANDSHAKES = 500;
+    // Beyond this, new addresses share one bucket until idle ones are dropped
+    private static final int MAX_BUCKETS = 65536;
+    private static final long IDLE_NANOS = TimeUnit.MINUTES.toNanos(1);
+
+    private final Map<InetAddress, Bucket> addresses = new ConcurrentHashMap<>();
+    private final Map<Prefix, Bucket> prefixes = new ConcurrentHashMap<>();
+    private final Bucket overflowAddresses = new Bucket(ADDRESS_BURST * 10, ADDRESS_PER_SECOND * 10);
+    private final Bucket overflowPrefixes = new Bucket(PREFIX_BURST * 10, PREFIX_PER_SECOND * 10);
+
+    private final AtomicInteger handshakes = new AtomicInteger();
+
+    private final LongAdder accepted = new LongAdder();
+    private final LongAdder rejectedAddress = new LongAdder();
+    private final LongAdder rejectedPrefix = new LongAdder();
+    private final LongAdder rejectedHandshakes = new LongAdder();
+
+    public ConnectionLimiter() {
+        Scheduler.repeat(this::dropIdle, 1, TimeUnit.MINUTES);
+    }
+
+    /**
+     * @return True if a connection from this address may be accepted
+     */
+    public boolean admit(InetAddress address) {
+        if (handshakes.get() >= MAX_HANDSHAKES) {
+            rejectedHandshakes.increment();
+            return false;
+        }
+
+        // Load tests connect thousands of clients from one address
+        if (BedrockConnect.testMode) {
+            accepted.increment();
+            return true;
+        }
+
+        long now = Scheduler.now();
+        if (!bucket(prefixes, Prefix.of(address), PREFIX_BURST, PREFIX_PER_SECOND, overflowPrefixes).tryTake(now)) {
+            rejectedPrefix.increment();
+            return false;
+        }
+        if (!bucket(addresses, address, ADDRESS_BURST, ADDRESS_PER_SECOND, overflowAddresses).tryTake(now)) {
+            rejectedAddress.increment();
+            return false;
+        }
+
+        accepted.increment();
+        return true;
+    }
+
+    /**
+     * A session was created and is logging in
+     */
+    public void handshakeStarted() {
+        handshakes.incrementAndGet();
+    }
+
+    /**
+     * A session got its player or disconnected. Called once per {@link #handshakeStarted()}.
+     */
+    public void handshakeFinished() {
+        handshakes.decrementAndGet();
+    }
+
+    public String[] getStats() {
+        return new String[] {
+                "connections-accepted=" + accepted.sum(),
+                "connections-rejected-address=" + rejectedAddress.sum(),
+                "connections-rejected-prefix=" + rejectedPrefix.sum(),
+                "connections-rejected-handshakes=" + rejectedHandshakes.sum(),
+                "handshakes=" + handshakes.get(),
+                "tracked-addresses=" + addresses.size()
+        };
+    }
+
+    private static <K> Bucket bucket(Map<K, Bucket> buckets, K key, int burst, double perSecond, Bucket overflow) {
+        Bucket bucket = buckets.get(key);
+        if (bucket != null)
+            return bucket;
+        if (buckets.size() >= MAX_BUCKETS)
+            return overflow;
+        return buckets.computeIfAbsent(key, k -> new Bucket(burst, perSecond));
+    }
+
+    private void dropIdle() {
+        long now = Scheduler.now();
+        addresses.values().removeIf(bucket -> bucket.isIdle(now));
+        prefixes.values().removeIf(bucket -> bucket.isIdle(now));
+    }
+
+    private static class Bucket {
+        private final int burst;
+        private final double perNano;
+        private double tokens;
+        private long updated;
+
+        Bucket(int burst, double perSecond) {
+            this.burst = burst;
+            this.perNano = perSecond / TimeUnit.SECONDS.toNanos(1);
+            this.tokens = burst;
+            this.updated = Scheduler.now();
+        }
+
+        synchronized boolean tryTake(long now) {
+            tokens = Math.min(burst, tokens + (now - updated) * perNano);
+            updated = now;
+            if (tokens < 1)
+                return false;
+            tokens--;
+            return true;
+        }
+
+        synchronized boolean isIdle(long now) {
+            return now - updated > IDLE_NANOS && tokens + (now - updated) * perNano >= burst;
+        }
+    }
+
+    private static class Prefix {
+        private final long high;
+        private final long low;
+
+        private Prefix(long high, long low) {
+            this.high = high;
+            this.low = low;
+        }
+
+        static Prefix of(InetAddress address) {
+            byte[] bytes = address.getAddress();
+            if (address instanceof Inet4Address)
+                return new Prefix(0, ((bytes[0] & 0xffL) << 16) | ((bytes[1] & 0xffL) << 8) | (bytes[2] & 0xffL));
+            long high = 0;
+            for (int i = 0; i < 6; i++)
+                high = (high << 8) | (bytes[i] & 0xffL);
+            return new Prefix(high, -1);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Prefix))
+                return false;
+            Prefix other = (Prefix) o;
+            return high == other.high && low == other.low;
+        }
+
+        @Override
+        public int hashCode() {
+            return Long.hashCode(high * 31 + low);
+        }
+    }
+}
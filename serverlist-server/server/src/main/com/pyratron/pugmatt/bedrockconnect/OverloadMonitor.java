@@ -0,0 +1,109 @@
+package main.com.pyratron.pugmatt.bedrockconnect;
+
+import io.netty.util.concurrent.EventExecutor;
+import io.netty.util.concurrent.EventExecutorGroup;
+import main.com.pyratron.pugmatt.bedrockconnect.listeners.LoginVerifier;
+import main.com.pyratron.pugmatt.bedrockconnect.utils.Scheduler;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Tells whether the server is too busy to take more players.
+ *
+ * Every half second a probe task is queued on each network event loop; the time it waits before running is the lag.
+ * Together with the number of logins waiting for verification this decides whether new connections are refused,
+ * with a lower threshold to leave the overloaded state so it does not flap.
+ */
+public class OverloadMonitor {
+
+    private static final long PROBE_INTERVAL_MILLIS = 500;
+    private static final long LAG_OVERLOADED = TimeUnit.MILLISECONDS.toNanos(200);
+    private static final long LAG_RECOVERED = TimeUnit.MILLISECONDS.toNanos(50);
+    private static final double LOGINS_OVERLOADED = 0.75;
+    private static final double LOGINS_RECOVERED = 0.25;
+
+    private final List<EventExecutor> loops = new ArrayList<>();
+    // Time each loop's probe was queued, 0 once it has run
+    private final AtomicLong[] probes;
+    private final AtomicLong maxLag = new AtomicLong();
+    private final Runnable onProbe;
+
+    private volatile long lag;
+    private volatile boolean overloaded;
+    private final LongAdder rejected = new LongAdder();
+
+    /**
+     * @param group The event loops serving the players
+     * @param onProbe Run on the timer thread after every probe, e.g. to publish the new state
+     */
+    public OverloadMonitor(EventExecutorGroup group, Runnable onProbe) {
+        for (EventExecutor loop : group)
+            loops.add(loop);
+        this.probes = new AtomicLong[loops.size()];
+        for (int i = 0; i < probes.length; i++)
+            probes[i] = new AtomicLong();
+        this.onProbe = onProbe;
+
+        Scheduler.repeat(this::probe, PROBE_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    public boolean isOverloaded() {
+        return overloaded;
+    }
+
+    /**
+     * Counts a connection refused because the server is overloaded or full
+     */
+    public void rejected() {
+        rejected.increment();
+    }
+
+    public String[] getStats() {
+        return new String[] {
+                "overloaded=" + overloaded,
+                "event-loop-lag-ms=" + TimeUnit.NANOSECONDS.toMillis(lag),
+                "logins-waiting=" + LoginVerifier.getWaitingLogins(),
+                "connections-rejected-busy=" + rejected.sum()
+        };
+    }
+
+    private void probe() {
+        long now = Scheduler.now();
+        long worst = maxLag.getAndSet(0);
+
+        for (int i = 0; i < probes.length; i++) {
+            AtomicLong probe = probes[i];
+            long queued = probe.get();
+            if (queued != 0) {
+                // The last probe has not run yet, the loop is at least that late
+                worst = Math.max(worst, now - queued);
+                continue;
+            }
+            probe.set(now);
+            loops.get(i).execute(() -> {
+                long waited = Scheduler.now() - now;
+                probe.set(0);
+                maxLag.accumulateAndGet(waited, Math::max);
+            });
+        }
+        lag = worst;
+
+        double logins = (double) LoginVerifier.getWaitingLogins() / LoginVerifier.getMaxWaitingLogins();
+        boolean wasOverloaded = overloaded;
+        if (wasOverloaded)
+            overloaded = worst > LAG_RECOVERED || logins > LOGINS_RECOVERED;
+        else
+            overloaded = worst > LAG_OVERLOADED || logins > LOGINS_OVERLOADED;
+
+        if (overloaded != wasOverloaded)
+            System.out.println(overloaded
+                    ? "Server overloaded (event loop lag " + TimeUnit.NANOSECONDS.toMillis(worst) + " ms), refusing new connections"
+                    : "Server load is back to normal, accepting connections");
+
+        onProbe.run();
+    }
+}
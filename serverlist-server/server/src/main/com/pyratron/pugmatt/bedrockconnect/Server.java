@@ -0,0 +1,190 @@
+package main.com.pyratron.pugmatt.bedrockconnect;
+
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.yaml.YAMLMapper;
+import com.nukkitx.network.util.EventLoops;
+import com.nukkitx.protocol.bedrock.*;
+import com.nukkitx.protocol.bedrock.v428.Bedrock_v428;
+import main.com.pyratron.pugmatt.bedrockconnect.listeners.PacketFilter;
+import main.com.pyratron.pugmatt.bedrockconnect.listeners.PacketHandler;
+import main.com.pyratron.pugmatt.bedrockconnect.utils.BedrockProtocol;
+
+
+import javax.annotation.Nonnull;
+import java.net.InetSocketAddress;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+public class Server {
+
+    public BedrockServer server;
+    public BedrockPong pong;
+
+    public static final ObjectMapper JSON_MAPPER = new ObjectMapper().disable(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES);
+    public static final YAMLMapper YAML_MAPPER = (YAMLMapper) new YAMLMapper().disable(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES);
+
+    // Online players by XUID identity and by session. Iteration over either is weakly consistent,
+    // so sweeps can run while event loops and data threads add and remove players.
+    private final Map<String, BCPlayer> playersById = new ConcurrentHashMap<>();
+    private final Map<BedrockServerSession, BCPlayer> playersBySession = new ConcurrentHashMap<>();
+
+    private final ConnectionLimiter connectionLimiter = new ConnectionLimiter();
+
+    private OverloadMonitor overloadMonitor;
+
+    // Shown as the maximum in the server list when max_players is not set
+    private static final int ADVERTISED_MAX_PLAYERS = 1000;
+
+    public ConnectionLimiter getConnectionLimiter() {
+        return connectionLimiter;
+    }
+
+    public Collection<BCPlayer> getPlayers() {
+        return playersBySession.values();
+    }
+
+    /**
+     * @return The latest session of the player with this identity, or null if they are not online
+     */
+    public BCPlayer getPlayer(String uuid) {
+        if(uuid == null)
+            return null;
+        return playersById.get(uuid);
+    }
+
+    public BCPlayer getPlayer(BedrockServerSession session) {
+        return playersBySession.get(session);
+    }
+
+    public int getPlayerCount() {
+        return playersBySession.size();
+    }
+
+    public void addPlayer(BCPlayer player) {
+        System.out.println("Total users connected: " + getPlayerCount());
+        BedrockServerSession session = player.getSession();
+        if(session == null)
+            return;
+        playersBySession.put(session, player);
+        if(player.getUuid() != null)
+            playersById.put(player.getUuid(), player);
+
+        // Player data is loaded on another thread, the session may have closed in the meantime
+        if(session.isClosed())
+            removePlayer(player);
+        else if(BedrockConnect.kickInactive)
+            player.kickWhenIdle(this);
+    }
+
+    public void removePlayer(BCPlayer player) {
+        player.stopIdleTimer();
+        if(player.getSession() != null)
+            playersBySession.remove(player.getSession(), player);
+        if(player.getUuid() != null)
+            playersById.remove(player.getUuid(), player);
+    }
+
+
+    /**
+     * Shows the real player count in the server list ping. While overloaded the server is shown as full,
+     * so clients try again later instead of joining a slow server.
+     */
+    private void updatePong() {
+        int count = getPlayerCount();
+        pong.setPlayerCount(count);
+        boolean full = overloadMonitor != null && overloadMonitor.isOverloaded();
+        pong.setMaximumPlayerCount(full ? count : getAdvertisedMaxPlayers(count));
+    }
+
+    /**
+     * @return If max_players is set and that many players are online
+     */
+    private boolean isFull() {
+        return BedrockConnect.maxPlayers > 0 && getPlayerCount() >= BedrockConnect.maxPlayers;
+    }
+
+    private static int getAdvertisedMaxPlayers(int count) {
+        if (BedrockConnect.maxPlayers > 0)
+            return BedrockConnect.maxPlayers;
+        return Math.max(ADVERTISED_MAX_PLAYERS, count + 1);
+    }
+
+    public Server(String port) {
+        Server current = this;
+
+        InetSocketAddress bindAddress = new InetSocketAddress("0.0.0.0", Integer.parseInt(port));
+
+        server = new BedrockServer(bindAddress);
+        pong = new BedrockPong();
+        pong.setEdition("MCPE");
+        pong.setMotd("加入以打开服务器列表");
+        pong.setSubMotd("BedrockConnect服务器列表");
+        pong.setPlayerCount(0);
+        pong.setMaximumPlayerCount(getAdvertisedMaxPlayers(0));
+        pong.setGameType("Survival");
+        pong.setIpv4Port(Integer.parseInt(port));
+        pong.setProtocolVersion(BedrockProtocol.DEFAULT_BEDROCK_CODEC.getProtocolVersion());
+        pong.setVersion(BedrockProtocol.DEFAULT_BEDROCK_CODEC.getMinecraftVersion());
+        // BedrockServer runs on the shared network event loops
+        overloadMonitor = new OverloadMonitor(EventLoops.commonGroup(), this::updatePong);
+
+        server.setHandler(new BedrockServerEventHandler() {
+            @Override
+            public boolean onConnectionRequest(InetSocketAddress address) {
+                // Turned away before RakNet allocates anything for the connection
+                if (overloadMonitor.isOverloaded() || isFull()) {
+                    overloadMonitor.rejected();
+                    return false;
+                }
+                return connectionLimiter.admit(address.getAddress());
+            }
+
+            @Nonnull
+            public BedrockPong onQuery(InetSocketAddress address) {
+                return pong;
+            }
+
+            @Override
+            public void onSessionCreation(BedrockServerSession session) {
+                    connectionLimiter.handshakeStarted();
+                    PacketHandler handler = new PacketHandler(session, current, false);
+                    session.setPacketHandler(handler);
+                    session.setBatchHandler(new PacketFilter(handler));
+            }
+        });
+        // Start server up
+        server.bind().join();
+        System.out.println("Bedrock Connection Started: 0.0.0.0:19132");
+
+        new Thread() {
+            public void run() {
+                try {
+                    Scanner sc = new Scanner(System.in);
+                    while(sc.hasNextLine()) {
+                        String cmd = sc.next();
+                        switch(cmd) {
+                            case "end":
+                            case "stop":
+                                System.exit(0);
+                                break;
+                            case "reload":
+                                BedrockConnect.reloadDNS();
+                                break;
+                            case "stats":
+                                System.out.println("players=" + getPlayerCount());
+                                for (String line : connectionLimiter.getStats())
+                                    System.out.println(line);
+                                for (String line : overloadMonitor.getStats())
+                                    System.out.println(line);
+                                break;
+                        }
+                    }
+                } catch (Exception e) {
+                    e.printStackTrace();
+                }
+            }
+        }.start();
+
+    }
+}
@@ -0,0 +1,348 @@
+package main.com.pyratron.pugmatt.bedrockconnect;
+
+import io.netty.util.concurrent.DefaultThreadFactory;
+import main.com.pyratron.pugmatt.bedrockconnect.dns.RakNetPing;
+import main.com.pyratron.pugmatt.bedrockconnect.utils.Scheduler;
+
+import java.io.IOException;
+import java.net.Inet4Address;
+import java.net.Inet6Address;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.*;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Online state, player count and latency of the servers shown in the serverlist.
+ *
+ * Every address is pinged in the background at most once per TTL however many players list it, in batches
+ * sent from one socket. Addresses nobody has looked at for a while are forgotten. Loopback, private, link-local
+ * and multicast addresses are never pinged, so players can not use the list to probe the server's network.
+ *
+ * Host names are looked up on a small pool of their own, so a slow name server never holds up the pings.
+ * Until a new lookup completes the previous address keeps being pinged; a server whose first lookup takes
+ * longer than {@link #RESOLVE_TIMEOUT} is shown offline meanwhile.
+ *
+ * Each refresh that changes a status text starts a new generation, and every address remembers the generation
+ * its text last changed in, so a rendered form only needs to be rendered again if one of its own servers changed.
+ */
+public class ServerStatus {
+
+    private static final long TTL = TimeUnit.SECONDS.toNanos(30);
+    private static final long FORGET_AFTER = TimeUnit.MINUTES.toNanos(10);
+    private static final long RESOLVE_TTL = TimeUnit.MINUTES.toNanos(10);
+    private static final long RESOLVE_TIMEOUT = TimeUnit.SECONDS.toNanos(5);
+    private static final int RESOLVE_THREADS = 4;
+    private static final int RESOLVE_QUEUE_SIZE = 1024;
+    private static final long REFRESH_MILLIS = 5000;
+    private static final int PING_TIMEOUT = 1000;
+    private static final int BATCH_SIZE = 256;
+    private static final int MAX_ADDRESSES = 10000;
+    // Upper bounds of the latencies shown, anything slower is shown as the last one and more
+    private static final int[] LATENCY_BUCKETS = { 50, 100, 200 };
+
+    /**
+     * Last result of pinging an address
+     */
+    public static class Status {
+        public final boolean online;
+        public final int playerCount;
+        public final int maxPlayers;
+        public final long latencyMillis;
+        private final String text;
+
+        Status(RakNetPing.Pong pong) {
+            this.online = pong != null;
+            this.playerCount = online ? pong.playerCount : 0;
+            this.maxPlayers = online ? pong.maxPlayers : 0;
+            this.latencyMillis = online ? pong.rttMillis : 0;
+            this.text = online
+                    ? "§2Online §8(" + approximate(playerCount) + "/" + maxPlayers + ", " + latencyBucket(latencyMillis) + ")"
+                    : "§4Offline";
+        }
+
+        /**
+         * @return Second line of the server's button. Player counts and latency are rounded, so the text only
+         *         changes when the numbers change noticeably.
+         */
+        public String getText() {
+            return text;
+        }
+    }
+
+    /**
+     * Result of looking up a host, replaced as a whole so the address and whether to ping it always match
+     */
+    private static class Lookup {
+        final InetSocketAddress address;
+        // The address can not or must not be pinged, until it is resolved again
+        final boolean skipped;
+
+        Lookup(InetSocketAddress address, boolean skipped) {
+            this.address = address;
+            this.skipped = skipped;
+        }
+    }
+
+    private static class Entry {
+        final String host;
+        final int port;
+        // Null until the first lookup completes
+        volatile Lookup lookup;
+        // When the last lookup was started, or the entry was created
+        volatile long resolved;
+        final AtomicBoolean resolving = new AtomicBoolean();
+        volatile Status status;
+        volatile long pinged;
+        volatile long requested;
+        // Generation in which the status text last changed
+        volatile long changed;
+
+        Entry(String host, int port, long now) {
+            this.host = host;
+            this.port = port;
+            this.requested = now;
+            this.resolved = now;
+        }
+    }
+
+    private static final Map<String, Entry> entries = new ConcurrentHashMap<>();
+    // Advanced by each refresh that changes a status text, only written by the refresh thread
+    private static final AtomicLong generation = new AtomicLong();
+
+    private static final ExecutorService worker = Executors.newSingleThreadExecutor(new DefaultThreadFactory("Server Status", true));
+    private static final ThreadPoolExecutor resolver = new ThreadPoolExecutor(RESOLVE_THREADS, RESOLVE_THREADS, 0L, TimeUnit.MILLISECONDS,
+            new ArrayBlockingQueue<>(RESOLVE_QUEUE_SIZE), new DefaultThreadFactory("Server Status Resolver", true));
+    private static final AtomicBoolean refreshing = new AtomicBoolean();
+    private static volatile boolean enabled;
+
+    public static void start() {
+        enabled = true;
+        Scheduler.repeat(() -> {
+            if (refreshing.compareAndSet(false, true))
+                worker.execute(ServerStatus::refresh);
+        }, REFRESH_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * @return The current generation. Read it before rendering, then pass it to {@link #changedSince} to find out
+     *         whether what was rendered is stale.
+     */
+    public static long getGeneration() {
+        return generation.get();
+    }
+
+    /**
+     * @return The last known status of the server, or null while it has not been pinged yet or is not pinged at all.
+     *         Asking keeps the address pinged.
+     */
+    public static Status get(String host, int port) {
+        Entry entry = entry(host, port);
+        return entry == null ? null : entry.status;
+    }
+
+    /**
+     * @param address A saved server, "host:port"
+     */
+    public static Status get(String address) {
+        Entry entry = entry(address);
+        return entry == null ? null : entry.status;
+    }
+
+    /**
+     * @return True if the status text of the server may differ from the one shown in the given generation.
+     *         Asking keeps the address pinged.
+     */
+    public static boolean changedSince(String host, int port, long generation) {
+        return changedSince(entry(host, port), generation);
+    }
+
+    /**
+     * @param address A saved server, "host:port"
+     */
+    public static boolean changedSince(String address, long generation) {
+        return changedSince(entry(address), generation);
+    }
+
+    private static boolean changedSince(Entry entry, long generation) {
+        // No entry means no status, before and now
+        return entry != null && entry.changed > generation;
+    }
+
+    private static Entry entry(String address) {
+        int colon = address.lastIndexOf(':');
+        if (colon <= 0)
+            return null;
+        try {
+            return entry(address.substring(0, colon), Integer.parseInt(address.substring(colon + 1)));
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    private static Entry entry(String host, int port) {
+        if (!enabled || port < 1 || port > 65535)
+            return null;
+
+        long now = Scheduler.now();
+        String key = host.toLowerCase(Locale.ROOT) + ":" + port;
+        Entry entry = entries.get(key);
+        if (entry == null) {
+            if (entries.size() >= MAX_ADDRESSES)
+                return null;
+            // Without a status yet nothing changes, until the first ping
+            entry = entries.computeIfAbsent(key, k -> new Entry(host, port, now));
+        }
+        entry.requested = now;
+        return entry;
+    }
+
+    private static void refresh() {
+        try {
+            long now = Scheduler.now();
+            long next = generation.get() + 1;
+            boolean changed = entries.values().removeIf(e -> now - e.requested > FORGET_AFTER);
+
+            Map<InetSocketAddress, List<Entry>> due = new HashMap<>();
+            for (Entry entry : entries.values()) {
+                if ((entry.lookup == null || now - entry.resolved > RESOLVE_TTL) && entry.resolving.compareAndSet(false, true))
+                    resolve(entry, now);
+
+                Lookup lookup = entry.lookup;
+                if (lookup == null) {
+                    if (entry.status == null && now - entry.resolved > RESOLVE_TIMEOUT)
+                        changed |= update(entry, null, now, next);
+                    continue;
+                }
+                if (lookup.skipped) {
+                    if (entry.status != null) {
+                        entry.status = null;
+                        entry.changed = next;
+                        changed = true;
+                    }
+                    continue;
+                }
+                if (entry.status != null && now - entry.pinged < TTL)
+                    continue;
+                if (lookup.address.isUnresolved()) {
+                    changed |= update(entry, null, now, next);
+                    continue;
+                }
+                due.computeIfAbsent(lookup.address, a -> new ArrayList<>()).add(entry);
+            }
+
+            List<InetSocketAddress> batch = new ArrayList<>(BATCH_SIZE);
+            Iterator<InetSocketAddress> addresses = due.keySet().iterator();
+            while (addresses.hasNext()) {
+                batch.clear();
+                while (addresses.hasNext() && batch.size() < BATCH_SIZE)
+                    batch.add(addresses.next());
+
+                Map<InetSocketAddress, RakNetPing.Pong> pongs;
+                try {
+                    pongs = RakNetPing.pingAll(batch, PING_TIMEOUT);
+                } catch (IOException e) {
+                    // The socket could not be opened, the next refresh tries again
+                    System.out.println("Unable to ping servers: " + e.getMessage());
+                    break;
+                }
+                long pinged = Scheduler.now();
+                for (InetSocketAddress address : batch) {
+                    for (Entry entry : due.get(address))
+                        changed |= update(entry, pongs.get(address), pinged, next);
+                }
+            }
+
+            if (changed)
+                generation.set(next);
+        } finally {
+            refreshing.set(false);
+        }
+    }
+
+    /**
+     * Starts a lookup of the entry's host on the resolver pool. The caller has set {@code entry.resolving}.
+     */
+    private static void resolve(Entry entry, long now) {
+        long previous = entry.resolved;
+        entry.resolved = now;
+        try {
+            resolver.execute(() -> {
+                try {
+                    entry.lookup = lookup(entry.host, entry.port);
+                } finally {
+                    entry.resolving.set(false);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            // Too many lookups waiting, the next refresh tries again
+            entry.resolved = previous;
+            entry.resolving.set(false);
+        }
+    }
+
+    private static Lookup lookup(String host, int port) {
+        try {
+            InetSocketAddress address = new InetSocketAddress(host, port);
+            return new Lookup(address, !address.isUnresolved() && !isPingable(address.getAddress()));
+        } catch (IllegalArgumentException | SecurityException e) {
+            return new Lookup(InetSocketAddress.createUnresolved(host, 0), true);
+        }
+    }
+
+    /**
+     * @return False for addresses of this host and its networks, and for addresses that are not a single host
+     */
+    private static boolean isPingable(InetAddress address) {
+        if (address.isAnyLocalAddress() || address.isLoopbackAddress() || address.isLinkLocalAddress()
+                || address.isSiteLocalAddress() || address.isMulticastAddress())
+            return false;
+        byte[] bytes = address.getAddress();
+        if (address instanceof Inet4Address)
+            // 255.255.255.255
+            return (bytes[0] & bytes[1] & bytes[2] & bytes[3]) != (byte) 0xff;
+        if (address instanceof Inet6Address)
+            // Unique local fc00::/7, the IPv6 private range
+            return (bytes[0] & 0xfe) != 0xfc;
+        return true;
+    }
+
+    private static boolean update(Entry entry, RakNetPing.Pong pong, long now, long generation) {
+        Status previous = entry.status;
+        Status status = new Status(pong);
+        entry.status = status;
+        entry.pinged = now;
+        if (previous != null && previous.text.equals(status.text))
+            return false;
+        entry.changed = generation;
+        return true;
+    }
+
+    /**
+     * @return The count with two significant digits, e.g. 1234 as 1200+
+     */
+    private static String approximate(int count) {
+        if (count < 100)
+            return Integer.toString(count);
+        int magnitude = 1;
+        while (count / magnitude >= 100)
+            magnitude *= 10;
+        return (count / magnitude * magnitude) + "+";
+    }
+
+    private static String latencyBucket(long millis) {
+        for (int bucket : LATENCY_BUCKETS) {
+            if (millis < bucket)
+                return "<" + bucket + " ms";
+        }
+        return LATENCY_BUCKETS[LATENCY_BUCKETS.length - 1] + "+ ms";
+    }
+}
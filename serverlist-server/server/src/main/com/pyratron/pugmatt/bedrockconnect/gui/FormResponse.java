@@ -0,0 +1,303 @@
+package main.com.pyratron.pugmatt.bedrockconnect.gui;
+
+/**
+ * A parsed ModalFormResponsePacket.
+ *
+ * Clients only send a few shapes: "null" when the form was closed, the index of the clicked button for a simple
+ * form, or an array with one string, number, boolean or null per element of a custom form. These are read in one
+ * pass over the data, with no parser objects or boxed numbers beyond the values themselves.
+ */
+public class FormResponse {
+
+    private static final Object[] NO_VALUES = new Object[0];
+    // Custom forms here have a handful of elements, more than this is not a real response
+    private static final int MAX_VALUES = 64;
+
+    public static final FormResponse CLOSED = new FormResponse(true, true, -1, NO_VALUES);
+    public static final FormResponse INVALID = new FormResponse(false, false, -1, NO_VALUES);
+
+    private final boolean valid;
+    private final boolean closed;
+    private final int button;
+    private final Object[] values;
+
+    private FormResponse(boolean valid, boolean closed, int button, Object[] values) {
+        this.valid = valid;
+        this.closed = closed;
+        this.button = button;
+        this.values = values;
+    }
+
+    /**
+     * @return The response, {@link #INVALID} if the data is none of the shapes a client sends
+     */
+    public static FormResponse parse(String data) {
+        if (data == null)
+            return INVALID;
+        try {
+            return new Reader(data).read();
+        } catch (IllegalArgumentException e) {
+            return INVALID;
+        }
+    }
+
+    public boolean isValid() {
+        return valid;
+    }
+
+    /**
+     * @return True if the player closed the form
+     */
+    public boolean isClosed() {
+        return closed;
+    }
+
+    /**
+     * @return True if a button of a simple form was clicked
+     */
+    public boolean isButton() {
+        return button >= 0;
+    }
+
+    /**
+     * @return Index of the clicked button, -1 if this is not a button click
+     */
+    public int getButton() {
+        return button;
+    }
+
+    /**
+     * @return Number of custom form values
+     */
+    public int size() {
+        return values.length;
+    }
+
+    /**
+     * @return The value as text, null if it is missing or null
+     */
+    public String getString(int index) {
+        if (index >= values.length || values[index] == null)
+            return null;
+        return values[index].toString();
+    }
+
+    /**
+     * @return True only if the value is the boolean true, e.g. a toggle that is on
+     */
+    public boolean getBoolean(int index) {
+        return index < values.length && Boolean.TRUE.equals(values[index]);
+    }
+
+    /**
+     * @return The value as a whole number, e.g. the chosen dropdown option
+     * @throws IndexOutOfBoundsException if there is no such value
+     * @throws NumberFormatException if the value is not a number
+     */
+    public int getInt(int index) {
+        Object value = values[index];
+        if (value instanceof Number)
+            return ((Number) value).intValue();
+        if (value instanceof String)
+            return Integer.parseInt((String) value);
+        throw new NumberFormatException("Not a number: " + value);
+    }
+
+    /**
+     * Reads one response. Throws IllegalArgumentException on anything unexpected.
+     */
+    private static class Reader {
+        private final String data;
+        private int position;
+
+        Reader(String data) {
+            this.data = data;
+        }
+
+        FormResponse read() {
+            skipWhitespace();
+            FormResponse response;
+            char c = peek();
+            if (c == 'n') {
+                expect("null");
+                response = CLOSED;
+            } else if (c == '[') {
+                response = new FormResponse(true, false, -1, readArray());
+            } else if (c >= '0' && c <= '9') {
+                response = new FormResponse(true, false, readButton(), NO_VALUES);
+            } else {
+                throw new IllegalArgumentException();
+            }
+            skipWhitespace();
+            if (position != data.length())
+                throw new IllegalArgumentException();
+            return response;
+        }
+
+        private int readButton() {
+            long value = 0;
+            int start = position;
+            while (position < data.length() && data.charAt(position) >= '0' && data.charAt(position) <= '9') {
+                value = value * 10 + (data.charAt(position++) - '0');
+                if (value > Integer.MAX_VALUE)
+                    throw new IllegalArgumentException();
+            }
+            if (position == start)
+                throw new IllegalArgumentException();
+            return (int) value;
+        }
+
+        private Object[] readArray() {
+            position++; // [
+            skipWhitespace();
+            if (peek() == ']') {
+                position++;
+                return NO_VALUES;
+            }
+
+            Object[] values = new Object[4];
+            int size = 0;
+            while (true) {
+                if (size == MAX_VALUES)
+                    throw new IllegalArgumentException();
+                if (size == values.length) {
+                    Object[] grown = new Object[size * 2];
+                    System.arraycopy(values, 0, grown, 0, size);
+                    values = grown;
+                }
+                skipWhitespace();
+                values[size++] = readValue();
+                skipWhitespace();
+
+                char c = next();
+                if (c == ']')
+                    break;
+                if (c != ',')
+                    throw new IllegalArgumentException();
+            }
+
+            if (size == values.length)
+                return values;
+            Object[] trimmed = new Object[size];
+            System.arraycopy(values, 0, trimmed, 0, size);
+            return trimmed;
+        }
+
+        private Object readValue() {
+            char c = peek();
+            switch (c) {
+                case '"':
+                    return readString();
+                case 't':
+                    expect("true");
+                    return Boolean.TRUE;
+                case 'f':
+                    expect("false");
+                    return Boolean.FALSE;
+                case 'n':
+                    expect("null");
+                    return null;
+                default:
+                    if (c == '-' || (c >= '0' && c <= '9'))
+                        return readNumber();
+                    throw new IllegalArgumentException();
+            }
+        }
+
+        private String readString() {
+            position++; // "
+            int start = position;
+            // Plain strings, the usual case, are a single substring
+            while (true) {
+                char c = next();
+                if (c == '"')
+                    return data.substring(start, position - 1);
+                if (c == '\\')
+                    break;
+            }
+
+            StringBuilder out = new StringBuilder(position - start + 16);
+            out.append(data, start, position - 1);
+            position--;
+            while (true) {
+                char c = next();
+                if (c == '"')
+                    return out.toString();
+                if (c != '\\') {
+                    out.append(c);
+                    continue;
+                }
+                char escaped = next();
+                switch (escaped) {
+                    case '"': case '\\': case '/': out.append(escaped); break;
+                    case 'b': out.append('\b'); break;
+                    case 'f': out.append('\f'); break;
+                    case 'n': out.append('\n'); break;
+                    case 'r': out.append('\r'); break;
+                    case 't': out.append('\t'); break;
+                    case 'u':
+                        if (position + 4 > data.length())
+                            throw new IllegalArgumentException();
+                        out.append((char) Integer.parseInt(data.substring(position, position + 4), 16));
+                        position += 4;
+                        break;
+                    default:
+                        throw new IllegalArgumentException();
+                }
+            }
+        }
+
+        private Number readNumber() {
+            int start = position;
+            boolean whole = true;
+            if (peek() == '-')
+                position++;
+            while (position < data.length()) {
+                char c = data.charAt(position);
+                if (c >= '0' && c <= '9') {
+                    position++;
+                } else if (c == '.' || c == 'e' || c == 'E' || c == '+' || c == '-') {
+                    whole = false;
+                    position++;
+                } else {
+                    break;
+                }
+            }
+            String number = data.substring(start, position);
+            if (whole) {
+                long value = Long.parseLong(number);
+                if (value >= Integer.MIN_VALUE && value <= Integer.MAX_VALUE)
+                    return (int) value;
+                return value;
+            }
+            return Double.parseDouble(number);
+        }
+
+        private void expect(String word) {
+            if (!data.startsWith(word, position))
+                throw new IllegalArgumentException();
+            position += word.length();
+        }
+
+        private void skipWhitespace() {
+            while (position < data.length()) {
+                char c = data.charAt(position);
+                if (c != ' ' && c != '\n' && c != '\r' && c != '\t')
+                    break;
+                position++;
+            }
+        }
+
+        private char peek() {
+            if (position >= data.length())
+                throw new IllegalArgumentException();
+            return data.charAt(position);
+        }
+
+        private char next() {
+            char c = peek();
+            position++;
+            return c;
+        }
+    }
+}
@@ -0,0 +1,150 @@
+package main.com.pyratron.pugmatt.bedrockconnect.gui;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.stream.JsonWriter;
+
+import main.com.pyratron.pugmatt.bedrockconnect.CustomServer;
+import main.com.pyratron.pugmatt.bedrockconnect.ServerStatus;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.List;
+
+/**
+ * Renders the main menu form data. Everything except the player's own servers is the same for every player,
+ * so it is serialized once and the player's buttons are written between the two fixed parts.
+ * The shared part is rendered again only when the status of one of its own servers has changed,
+ * see {@link #isStale} for the same check on a player's rendered form.
+ */
+public class MainFormRenderer {
+
+    public static final String SERVER_ICON = "https://i.loli.net/2021/05/20/jumBzIxAXQeFywk.png";
+
+    // Form header and menu buttons, always ends with at least one button
+    private final String header;
+    private final CustomServer[] customServers;
+    private final CustomServer[] featuredServers;
+    // Custom servers, featured servers and the end of the form
+    private volatile Footer footer;
+
+    private static class Footer {
+        final String data;
+        final long generation;
+
+        Footer(String data, long generation) {
+            this.data = data;
+            this.generation = generation;
+        }
+    }
+
+    public MainFormRenderer(String title, JsonArray menuButtons, CustomServer[] customServers, CustomServer[] featuredServers) {
+        JsonObject form = UIComponents.createForm("form", title);
+        form.addProperty("content", "");
+        String start = form.toString();
+
+        StringBuilder header = new StringBuilder(start.substring(0, start.length() - 1));
+        header.append(",\"buttons\":[");
+        appendButtons(header, menuButtons);
+        this.header = header.toString();
+
+        this.customServers = customServers;
+        this.featuredServers = featuredServers != null ? featuredServers : new CustomServer[0];
+    }
+
+    /**
+     * @param servers The player's saved servers
+     * @return The form data, identical to what a full Gson tree of the same form would give
+     */
+    public String render(List<String> servers) {
+        String footer = getFooter();
+        StringWriter out = new StringWriter(header.length() + footer.length() + servers.size() * 128);
+        out.write(header);
+        try {
+            JsonWriter writer = new JsonWriter(out);
+            // Each button is a separate top level value for the writer, the commas are written directly
+            writer.setLenient(true);
+            for (int i = 0; i < servers.size(); i++) {
+                out.write(',');
+                writer.beginObject();
+                writer.name("type").value("button");
+                writer.name("text").value(withStatus(servers.get(i), ServerStatus.get(servers.get(i))));
+                writer.name("image").beginObject();
+                writer.name("type").value("url");
+                writer.name("data").value(SERVER_ICON);
+                writer.endObject();
+                writer.endObject();
+            }
+        } catch (IOException e) {
+            // StringWriter does not throw
+            throw new AssertionError(e);
+        }
+        out.write(footer);
+        return out.toString();
+    }
+
+    /**
+     * @param servers The player's saved servers
+     * @param generation The {@link ServerStatus} generation read before the form was rendered
+     * @return True if a status shown in the rendered form may have changed since
+     */
+    public boolean isStale(List<String> servers, long generation) {
+        for (String server : servers) {
+            if (ServerStatus.changedSince(server, generation))
+                return true;
+        }
+        return footerChangedSince(generation);
+    }
+
+    private String getFooter() {
+        long generation = ServerStatus.getGeneration();
+        Footer footer = this.footer;
+        if (footer == null || footer.generation != generation) {
+            if (footer == null || footerChangedSince(footer.generation)) {
+                StringBuilder data = new StringBuilder();
+                appendServers(data, customServers);
+                appendServers(data, featuredServers);
+                data.append("]}");
+                footer = new Footer(data.toString(), generation);
+            } else {
+                footer = new Footer(footer.data, generation);
+            }
+            this.footer = footer;
+        }
+        return footer.data;
+    }
+
+    private boolean footerChangedSince(long generation) {
+        return changedSince(customServers, generation) || changedSince(featuredServers, generation);
+    }
+
+    private static boolean changedSince(CustomServer[] servers, long generation) {
+        for (CustomServer cs : servers) {
+            if (ServerStatus.changedSince(cs.getAddress(), cs.getPort(), generation))
+                return true;
+        }
+        return false;
+    }
+
+    private static void appendServers(StringBuilder out, CustomServer[] servers) {
+        for (CustomServer cs : servers) {
+            String text = withStatus(cs.getName(), ServerStatus.get(cs.getAddress(), cs.getPort()));
+            out.append(',').append(UIComponents.createButton(text, cs.getIconUrl(), "url"));
+        }
+    }
+
+    private static String withStatus(String text, ServerStatus.Status status) {
+        return status == null ? text : text + "\n" + status.getText();
+    }
+
+    private static void appendButtons(StringBuilder out, JsonArray buttons) {
+        boolean first = true;
+        for (JsonElement button : buttons) {
+            if (!first)
+                out.append(',');
+            out.append(button.toString());
+            first = false;
+        }
+    }
+}
@@ -5,6 +5,7 @@ import com.google.gson.JsonObject;
 import com.nukkitx.protocol.bedrock.Bedrock;
 import com.nukkitx.protocol.bedrock.packet.ModalFormRequestPacket;
 
+import main.com.pyratron.pugmatt.bedrockconnect.BCPlayer;
 import main.com.pyratron.pugmatt.bedrockconnect.BedrockConnect;
 import main.com.pyratron.pugmatt.bedrockconnect.CustomServer;
 import main.com.pyratron.pugmatt.bedrockconnect.CustomServerHandler;
@@ -14,56 +15,56 @@ import java.util.List;
 public class UIForms {
     public static final int ERROR = 2, MAIN = 0, DIRECT_CONNECT = 1, REMOVE_SERVER = 3, DONATION = 4;
 
-    public static int currentForm = 0;
-
     public static JsonArray mainMenuButtons = new JsonArray();
-    public static JsonArray featuredServerButtons = new JsonArray();
+
+    public static final CustomServer[] featuredServers = {
+            new CustomServer("The Hive", "https://forum.playhive.com/uploads/default/original/1X/0d05e3240037f7592a0f16b11b57c08eba76f19c.png", "54.39.75.136", 19132),
+            new CustomServer("Mineplex", "https://www.mineplex.com/assets/www-mp/img/footer/footer_smalllogo.png", "108.178.12.125", 19132),
+            new CustomServer("CubeCraft Games", "https://i.imgur.com/aFH1NUr.png", "play.cubecraft.net", 19132),
+            new CustomServer("Lifeboat Network", "https://lbsg.net/wp-content/uploads/2017/06/lifeboat-square.png", "51.222.26.28", 19132),
+            new CustomServer("Mineville", "https://i.imgur.com/0K4TDut.png", "168.62.164.235", 19132),
+            new CustomServer("Galaxite", "https://i.imgur.com/VxXO8Of.png", "51.222.8.223", 19132)
+    };
 
     static {
         mainMenuButtons.add(UIComponents.createButton("连接到一个服务器"));
         mainMenuButtons.add(UIComponents.createButton("移除一个服务器"));
         mainMenuButtons.add(UIComponents.createButton("退出服务器列表"));
-
-        featuredServerButtons.add(UIComponents.createButton("The Hive", "https://forum.playhive.com/uploads/default/original/1X/0d05e3240037f7592a0f16b11b57c08eba76f19c.png", "url"));
-        featuredServerButtons.add(UIComponents.createButton("Mineplex", "https://www.mineplex.com/assets/www-mp/img/footer/footer_smalllogo.png", "url"));
-        featuredServerButtons.add(UIComponents.createButton("CubeCraft Games", "https://i.imgur.com/aFH1NUr.png", "url"));
-        featuredServerButtons.add(UIComponents.createButton("Lifeboat Network", "https://lbsg.net/wp-content/uploads/2017/06/lifeboat-square.png", "url"));
-        featuredServerButtons.add(UIComponents.createButton("Mineville", "https://i.imgur.com/0K4TDut.png", "url"));
-        featuredServerButtons.add(UIComponents.createButton("Galaxite", "https://i.imgur.com/VxXO8Of.png", "url"));
     }
 
-    public static ModalFormRequestPacket createMain(List<String> servers) {
-        currentForm = MAIN;
-        ModalFormRequestPacket mf = new ModalFormRequestPacket();
-        mf.setFormId(UIForms.MAIN);
-
-        JsonObject out = UIComponents.createForm("form", "服务器列表");
-        out.addProperty("content", "");
-
-        JsonArray buttons = new JsonArray();
-        CustomServer[] customServers = CustomServerHandler.getServers();
-
-        if(BedrockConnect.userServers)
-            buttons.addAll(mainMenuButtons);
-        else
-            buttons.add(UIComponents.createButton("退出服务器列表"));
-
-        for(int i=0;i<servers.size();i++) {
-            buttons.add(UIComponents.createButton(servers.get(i), "https://i.loli.net/2021/05/20/jumBzIxAXQeFywk.png", "url"));
-        }
-
-        for (CustomServer cs : customServers) {
-            buttons.add(UIComponents.createButton(cs.getName(), cs.getIconUrl(), "url"));
-        }
-
-        if(BedrockConnect.featuredServers) {
-            buttons.addAll(featuredServerButtons);
+    private static MainFormRenderer mainRenderer;
+
+    /**
+     * The main menu only changes with the startup settings, so its fixed parts are rendered once
+     */
+    public static synchronized MainFormRenderer getMainRenderer() {
+        if (mainRenderer == null) {
+            JsonArray menu = mainMenuButtons;
+            if (!BedrockConnect.userServers) {
+                menu = new JsonArray();
+                menu.add(UIComponents.createButton("退出服务器列表"));
+            }
+            mainRenderer = new MainFormRenderer("服务器列表", menu, CustomServerHandler.getServers(),
+                    BedrockConnect.featuredServers ? featuredServers : null);
         }
+        return mainRenderer;
+    }
 
-        out.add("buttons", buttons);
+    public static ModalFormRequestPacket createMain(List<String> servers) {
+        return createMainFromData(getMainRenderer().render(servers));
+    }
 
-        mf.setFormData(out.toString());
+    /**
+     * Same as {@link #createMain(List)}, reusing the player's last rendered form while their list is unchanged
+     */
+    public static ModalFormRequestPacket createMain(BCPlayer player) {
+        return createMainFromData(player.getMainFormData());
+    }
 
+    private static ModalFormRequestPacket createMainFromData(String formData) {
+        ModalFormRequestPacket mf = new ModalFormRequestPacket();
+        mf.setFormId(UIForms.MAIN);
+        mf.setFormData(formData);
         return mf;
     }
 
@@ -105,7 +106,6 @@ public class UIForms {
     }
 
     public static ModalFormRequestPacket createDirectConnect() {
-        currentForm = DIRECT_CONNECT;
         ModalFormRequestPacket mf = new ModalFormRequestPacket();
         mf.setFormId(UIForms.DIRECT_CONNECT);
         JsonObject out = UIComponents.createForm("custom_form", "连接服务器");
@@ -123,7 +123,6 @@ public class UIForms {
     }
 
     public static ModalFormRequestPacket createRemoveServer(List<String> servers) {
-        currentForm = REMOVE_SERVER;
         ModalFormRequestPacket mf = new ModalFormRequestPacket();
         mf.setFormId(UIForms.REMOVE_SERVER);
         JsonObject out = UIComponents.createForm("custom_form", "移除服务器");
@@ -139,7 +138,6 @@ public class UIForms {
     }
 
     public static ModalFormRequestPacket createError(String text) {
-        currentForm = ERROR;
         ModalFormRequestPacket mf = new ModalFormRequestPacket();
         mf.setFormId(UIForms.ERROR);
         JsonObject form = new JsonObject();
@@ -153,7 +151,6 @@ public class UIForms {
     }
 
     public static ModalFormRequestPacket createDonatelink() {
-        currentForm = DONATION;
         ModalFormRequestPacket mf = new ModalFormRequestPacket();
         mf.setFormId(UIForms.DONATION);
         JsonObject form = new JsonObject();
@@ -0,0 +1,313 @@
+package main.com.pyratron.pugmatt.bedrockconnect.listeners;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.nimbusds.jose.JOSEException;
+import com.nimbusds.jose.JWSHeader;
+import com.nimbusds.jose.crypto.ECDSAVerifier;
+import com.nimbusds.jose.util.Base64URL;
+import com.nukkitx.protocol.bedrock.util.EncryptionUtils;
+import io.netty.util.AsciiString;
+import io.netty.util.concurrent.DefaultThreadFactory;
+import main.com.pyratron.pugmatt.bedrockconnect.Server;
+
+import java.io.IOException;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.interfaces.ECPublicKey;
+import java.text.ParseException;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Verifies login chains away from the network threads.
+ *
+ * The links signed by Mojang and Xbox Live are the same every time a player reconnects, so verified links are
+ * remembered by the SHA-256 of the token together with the keys they were verified with.
+ *
+ * Tokens are read straight from the login packet: the chain is read in one streaming pass that keeps only
+ * the claims used here, and the skin token is verified over its raw bytes without decoding the skin.
+ * Signatures are checked by nimbus's ECDSAVerifier, which only accepts the algorithm of the key's curve and
+ * signatures of that algorithm's length.
+ */
+public class LoginVerifier {
+
+    private static final int THREADS = Math.max(1, Runtime.getRuntime().availableProcessors());
+    private static final int QUEUE_SIZE = 512;
+    private static final int LINK_CACHE_SIZE = 4096;
+    private static final int KEY_CACHE_SIZE = 4096;
+
+    private static final ThreadPoolExecutor POOL = new ThreadPoolExecutor(THREADS, THREADS, 0L, TimeUnit.MILLISECONDS,
+            new ArrayBlockingQueue<>(QUEUE_SIZE), new DefaultThreadFactory("Login Verifier", true));
+
+    private static final JsonFactory JSON = Server.JSON_MAPPER.getFactory();
+
+    private static final Map<ByteBuffer, Link> LINKS = lruMap(LINK_CACHE_SIZE);
+    private static final Map<String, ECPublicKey> KEYS = lruMap(KEY_CACHE_SIZE);
+
+    private static final ThreadLocal<MessageDigest> SHA_256 = ThreadLocal.withInitial(() -> {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new AssertionError(e);
+        }
+    });
+
+    /**
+     * Runs a login on the verifier pool.
+     * @throws RejectedExecutionException if too many logins are already waiting
+     */
+    static void submit(Runnable login) {
+        POOL.execute(login);
+    }
+
+    public static int getWaitingLogins() {
+        return POOL.getQueue().size();
+    }
+
+    public static int getMaxWaitingLogins() {
+        return QUEUE_SIZE;
+    }
+
+    /**
+     * A compact JWS kept as the bytes it arrived in. Only the header and signature are decoded.
+     */
+    static class Token {
+        private final byte[] data;
+        private final int offset;
+        // Length of "header.payload", the signed part
+        private final int signedLength;
+        private final int payloadOffset;
+        private final JWSHeader header;
+        private final Base64URL signature;
+
+        Token(byte[] data, int offset, int length) throws IOException {
+            int end = offset + length;
+            int firstDot = indexOf(data, offset, end, '.');
+            int secondDot = firstDot < 0 ? -1 : indexOf(data, firstDot + 1, end, '.');
+            if (secondDot < 0)
+                throw new IOException("Malformed token");
+
+            this.data = data;
+            this.offset = offset;
+            this.signedLength = secondDot - offset;
+            this.payloadOffset = firstDot + 1;
+            try {
+                this.header = JWSHeader.parse(new Base64URL(ascii(data, offset, firstDot - offset)));
+            } catch (ParseException e) {
+                throw new IOException("Malformed token header", e);
+            }
+            this.signature = new Base64URL(ascii(data, secondDot + 1, end - secondDot - 1));
+        }
+
+        /**
+         * @return The decoded payload. Only called for chain links, never for the skin.
+         */
+        ByteBuffer payload() {
+            return Base64.getUrlDecoder().decode(ByteBuffer.wrap(data, payloadOffset, offset + signedLength - payloadOffset));
+        }
+
+        /**
+         * @return False if the token is not signed by the key, or its algorithm is not the one of the key's curve
+         */
+        boolean verify(ECPublicKey key) throws JOSEException {
+            ECDSAVerifier verifier = new ECDSAVerifier(key);
+            if (!verifier.supportedJWSAlgorithms().contains(header.getAlgorithm()))
+                return false;
+            if (!inRange(signature.decode(), key))
+                return false;
+            return verifier.verify(header, Arrays.copyOfRange(data, offset, offset + signedLength), signature);
+        }
+
+        /**
+         * @return True if the signature is R || S of the curve's size, with both in [1, n - 1]
+         */
+        private static boolean inRange(byte[] raw, ECPublicKey key) {
+            BigInteger order = key.getParams().getOrder();
+            int size = (order.bitLength() + 7) / 8;
+            if (raw.length != size * 2)
+                return false;
+            BigInteger r = new BigInteger(1, Arrays.copyOfRange(raw, 0, size));
+            BigInteger s = new BigInteger(1, Arrays.copyOfRange(raw, size, raw.length));
+            return r.signum() > 0 && r.compareTo(order) < 0 && s.signum() > 0 && s.compareTo(order) < 0;
+        }
+    }
+
+    /**
+     * A parsed chain link. Its claims never change, so it can be shared between logins.
+     */
+    static class Link {
+        final Token token;
+        final ECPublicKey identityPublicKey;
+        // extraData claims, only present in the last link
+        final String identity;
+        final String displayName;
+        final String xuid;
+        private final Set<ECPublicKey> verifiedWith = ConcurrentHashMap.newKeySet();
+
+        Link(Token token) throws Exception {
+            this.token = token;
+
+            String identityPublicKey = null;
+            String identity = null, displayName = null, xuid = null;
+
+            ByteBuffer payload = token.payload();
+            try (JsonParser parser = JSON.createParser(payload.array(), payload.arrayOffset() + payload.position(), payload.remaining())) {
+                if (parser.nextToken() != JsonToken.START_OBJECT)
+                    throw new IOException("Malformed chain payload");
+                while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                    String field = parser.getCurrentName();
+                    JsonToken value = parser.nextToken();
+                    if (field.equals("identityPublicKey") && value == JsonToken.VALUE_STRING) {
+                        identityPublicKey = parser.getText();
+                    } else if (field.equals("extraData") && value == JsonToken.START_OBJECT) {
+                        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                            String extra = parser.getCurrentName();
+                            parser.nextToken();
+                            if (extra.equals("identity"))
+                                identity = parser.getValueAsString();
+                            else if (extra.equals("displayName"))
+                                displayName = parser.getValueAsString();
+                            else if (extra.equals("XUID"))
+                                xuid = parser.getValueAsString();
+                            else
+                                parser.skipChildren();
+                        }
+                    } else {
+                        parser.skipChildren();
+                    }
+                }
+            }
+
+            if (identityPublicKey == null)
+                throw new IllegalStateException("identityPublicKey node is missing in chain");
+            this.identityPublicKey = getKey(identityPublicKey);
+            this.identity = identity;
+            this.displayName = displayName;
+            this.xuid = xuid;
+        }
+
+        boolean verify(ECPublicKey key) throws JOSEException {
+            if (verifiedWith.contains(key))
+                return true;
+            if (!token.verify(key))
+                return false;
+            verifiedWith.add(key);
+            return true;
+        }
+    }
+
+    /**
+     * Result of a chain check: whether every link is signed by the one before, and the last link, which holds the
+     * player's identity. Whether the chain starts from Mojang's key is not checked, so offline clients can connect.
+     */
+    static class Chain {
+        final boolean intact;
+        final Link last;
+
+        Chain(boolean intact, Link last) {
+            this.intact = intact;
+            this.last = last;
+        }
+    }
+
+    /**
+     * Reads and checks the chain of a login packet ({"chain":["token", ...]}).
+     */
+    static Chain validateChain(AsciiString chainData) throws Exception {
+        ECPublicKey lastKey = null;
+        boolean intact = true;
+        Link link = null;
+
+        try (JsonParser parser = JSON.createParser(chainData.array(), chainData.arrayOffset(), chainData.length())) {
+            if (parser.nextToken() != JsonToken.START_OBJECT)
+                throw new IOException("Certificate JSON can not be read.");
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String field = parser.getCurrentName();
+                if (!field.equals("chain")) {
+                    parser.nextToken();
+                    parser.skipChildren();
+                    continue;
+                }
+                if (parser.nextToken() != JsonToken.START_ARRAY)
+                    throw new IOException("Certificate data is not valid");
+
+                while (parser.nextToken() == JsonToken.VALUE_STRING) {
+                    link = getLink(parser.getText());
+
+                    if (intact && lastKey != null) {
+                        intact = link.verify(lastKey);
+                    }
+
+                    lastKey = link.identityPublicKey;
+                }
+            }
+        }
+
+        if (link == null)
+            throw new IOException("Certificate data is not valid");
+        return new Chain(intact, link);
+    }
+
+    /**
+     * Checks the signature of the skin token in place; the skin itself is never decoded.
+     */
+    static boolean verifySkin(AsciiString skinData, ECPublicKey identityPublicKey) throws Exception {
+        return new Token(skinData.array(), skinData.arrayOffset(), skinData.length()).verify(identityPublicKey);
+    }
+
+    static ECPublicKey getKey(String base64) throws Exception {
+        ECPublicKey key = KEYS.get(base64);
+        if (key == null) {
+            key = EncryptionUtils.generateKey(base64);
+            KEYS.put(base64, key);
+        }
+        return key;
+    }
+
+    private static Link getLink(String token) throws Exception {
+        byte[] bytes = token.getBytes(StandardCharsets.US_ASCII);
+        ByteBuffer hash = ByteBuffer.wrap(SHA_256.get().digest(bytes));
+
+        Link link = LINKS.get(hash);
+        if (link == null) {
+            link = new Link(new Token(bytes, 0, bytes.length));
+            LINKS.put(hash, link);
+        }
+        return link;
+    }
+
+    private static int indexOf(byte[] data, int from, int to, char c) {
+        for (int i = from; i < to; i++) {
+            if (data[i] == c)
+                return i;
+        }
+        return -1;
+    }
+
+    private static String ascii(byte[] data, int offset, int length) {
+        return new String(data, offset, length, StandardCharsets.US_ASCII);
+    }
+
+    private static <K, V> Map<K, V> lruMap(int size) {
+        return Collections.synchronizedMap(new LinkedHashMap<K, V>(size, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<K, V> eldest) {
+                return size() > size;
+            }
+        });
+    }
+}
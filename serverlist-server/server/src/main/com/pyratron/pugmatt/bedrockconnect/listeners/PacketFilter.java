@@ -0,0 +1,90 @@
+package main.com.pyratron.pugmatt.bedrockconnect.listeners;
+
+import com.nukkitx.protocol.bedrock.BedrockPacket;
+import com.nukkitx.protocol.bedrock.BedrockSession;
+import com.nukkitx.protocol.bedrock.handler.BatchHandler;
+import com.nukkitx.protocol.bedrock.packet.MovePlayerPacket;
+import com.nukkitx.protocol.bedrock.packet.PlayerActionPacket;
+import io.netty.buffer.ByteBuf;
+import main.com.pyratron.pugmatt.bedrockconnect.BCPlayer;
+import main.com.pyratron.pugmatt.bedrockconnect.utils.Scheduler;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.RandomAccess;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs before a session's packets reach its {@link PacketHandler}.
+ *
+ * Movement and action packets are only used to reopen a lost form, which has a cooldown, so at most one per batch
+ * is passed on and only once the player is loaded and the cooldown is over. A session sending more of them than
+ * any client does is disconnected. Nothing is allocated for packets that are dropped.
+ */
+public class PacketFilter implements BatchHandler {
+
+    private static final int MAX_MOVEMENT_PER_SECOND = 100;
+    private static final long WINDOW = TimeUnit.SECONDS.toNanos(1);
+
+    private final PacketHandler handler;
+
+    // Only used on the session's event loop
+    private long windowStart = Scheduler.now();
+    private int windowCount;
+
+    public PacketFilter(PacketHandler handler) {
+        this.handler = handler;
+    }
+
+    @Override
+    public void handle(BedrockSession session, ByteBuf compressed, Collection<BedrockPacket> packets) {
+        boolean movementPassed = false;
+
+        if (packets instanceof List && packets instanceof RandomAccess) {
+            List<BedrockPacket> list = (List<BedrockPacket>) packets;
+            for (int i = 0; i < list.size(); i++) {
+                movementPassed = filter(session, list.get(i), movementPassed);
+                if (session.isClosed())
+                    return;
+            }
+        } else {
+            for (BedrockPacket packet : packets) {
+                movementPassed = filter(session, packet, movementPassed);
+                if (session.isClosed())
+                    return;
+            }
+        }
+    }
+
+    /**
+     * @return Whether a movement packet has been passed on in this batch
+     */
+    private boolean filter(BedrockSession session, BedrockPacket packet, boolean movementPassed) {
+        if (packet instanceof MovePlayerPacket || packet instanceof PlayerActionPacket) {
+            if (isFlooding()) {
+                System.out.println("Disconnecting " + session.getAddress() + " for sending too many movement packets");
+                session.disconnect("disconnectionScreen.disconnected");
+                return movementPassed;
+            }
+
+            BCPlayer player = handler.getPlayer();
+            if (movementPassed || player == null || !player.canMovementOpen())
+                return movementPassed;
+
+            packet.handle(handler);
+            return true;
+        }
+
+        packet.handle(handler);
+        return movementPassed;
+    }
+
+    private boolean isFlooding() {
+        long now = Scheduler.now();
+        if (now - windowStart > WINDOW) {
+            windowStart = now;
+            windowCount = 0;
+        }
+        return ++windowCount > MAX_MOVEMENT_PER_SECOND;
+    }
+}
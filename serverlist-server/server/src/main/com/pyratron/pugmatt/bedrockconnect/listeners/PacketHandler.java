@@ -7,18 +7,13 @@ import com.fasterxml.jackson.databind.node.JsonNodeType;
 import com.nimbusds.jwt.SignedJWT;
 import com.nukkitx.math.vector.Vector3f;
 import com.nukkitx.nbt.NbtUtils;
-import com.nukkitx.network.util.Preconditions;
 import com.nukkitx.protocol.bedrock.BedrockClient;
 import com.nukkitx.protocol.bedrock.BedrockPacketCodec;
 import com.nukkitx.protocol.bedrock.data.AttributeData;
 import com.nukkitx.protocol.bedrock.packet.*;
-import com.nimbusds.jose.JOSEException;
-import com.nimbusds.jose.JWSObject;
-import com.nimbusds.jose.crypto.factories.DefaultJWSVerifierFactory;
 import com.nukkitx.protocol.bedrock.BedrockServerSession;
 import com.nukkitx.protocol.bedrock.handler.BedrockPacketHandler;
 import com.nukkitx.protocol.bedrock.packet.LoginPacket;
-import com.nukkitx.protocol.bedrock.util.EncryptionUtils;
 import com.nukkitx.protocol.bedrock.v388.Bedrock_v388;
 import com.nukkitx.protocol.bedrock.v407.Bedrock_v407;
 import io.netty.handler.codec.MessageAggregationException;
@@ -30,36 +25,63 @@ import main.com.pyratron.pugmatt.bedrockconnect.CustomServer;
 import main.com.pyratron.pugmatt.bedrockconnect.CustomServerHandler;
 import main.com.pyratron.pugmatt.bedrockconnect.Server;
 import main.com.pyratron.pugmatt.bedrockconnect.Whitelist;
+import main.com.pyratron.pugmatt.bedrockconnect.gui.FormResponse;
 import main.com.pyratron.pugmatt.bedrockconnect.gui.MainFormButton;
-import main.com.pyratron.pugmatt.bedrockconnect.gui.UIComponents;
 import main.com.pyratron.pugmatt.bedrockconnect.gui.UIForms;
+import main.com.pyratron.pugmatt.bedrockconnect.utils.AddressValidator;
 import main.com.pyratron.pugmatt.bedrockconnect.utils.BedrockProtocol;
-import net.minidev.json.JSONObject;
 
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.net.InetSocketAddress;
-import java.security.interfaces.ECPublicKey;
-import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 public class PacketHandler implements BedrockPacketHandler {
 
     private Server server;
     private BedrockServerSession session;
 
-    private String name;
-    private String uuid;
+    // Set by the login verifier thread
+    private volatile String name;
+    private volatile String uuid;
 
-    private BCPlayer player;
+    // Set by the thread loading the player's data
+    private volatile BCPlayer player;
+    // The client finished spawning. It can do so before the player is set, as the join sequence is sent first
+    private boolean spawned;
 
-    private JSONObject extraData;
+    // The session counts against the connection limiter's handshake limit until it has a player or disconnects
+    private final AtomicBoolean handshaking = new AtomicBoolean(true);
+
+    private volatile String xuid;
+
+    public String getXuid() {
+        return xuid;
+    }
+
+    public BCPlayer getPlayer() {
+        return player;
+    }
 
     public void setPlayer(BCPlayer player) {
-        this.player = player;
+        boolean openMain;
+        synchronized (this) {
+            this.player = player;
+            openMain = spawned;
+        }
+        finishHandshake();
+        if (openMain && player != null)
+            player.openForm(UIForms.createMain(player));
+    }
+
+    private void finishHandshake() {
+        if (handshaking.compareAndSet(true, false))
+            server.getConnectionLimiter().handshakeFinished();
     }
 
     @Override
@@ -78,33 +100,38 @@ public class PacketHandler implements BedrockPacketHandler {
 
     @Override
     public boolean handle(PlayerActionPacket packet) {
-        player.movementOpen();
+        if(player != null)
+            player.movementOpen();
         return false;
     }
     @Override
     public boolean handle(MovePlayerPacket packet) {
-        if(packet.getMode() == MovePlayerPacket.Mode.NORMAL || packet.getMode() == MovePlayerPacket.Mode.HEAD_ROTATION)
+        if(player != null && (packet.getMode() == MovePlayerPacket.Mode.NORMAL || packet.getMode() == MovePlayerPacket.Mode.HEAD_ROTATION))
             player.movementOpen();
         return false;
     }
 
     @Override
     public boolean handle(ModalFormResponsePacket packet) {
+        if(player == null)
+            return false;
+
         player.setActive();
         player.resetMovementOpen();
 
+        FormResponse response = FormResponse.parse(packet.getFormData());
+
         switch (packet.getFormId()) {
                 case UIForms.MAIN:
-                    if(UIForms.currentForm == UIForms.MAIN) {
+                    if(player.getCurrentForm() == UIForms.MAIN) {
                         // Re-open window if closed
-                        if (packet.getFormData().contains("null")) {
-                            session.sendPacketImmediately(UIForms.createMain(player.getServerList()));
-                            player.setCurrentForm(UIForms.MAIN);
+                        if (!response.isButton()) {
+                            player.openForm(UIForms.createMain(player), true);
                         } else { // If selecting button
-                            int chosen = Integer.parseInt(packet.getFormData().replaceAll("\\s+",""));
+                            int chosen = response.getButton();
 
                             CustomServer[] customServers = CustomServerHandler.getServers();
-                            List<String> playerServers = server.getPlayer(uuid).getServerList();
+                            List<String> playerServers = player.getServerList();
 
                             MainFormButton button = UIForms.getMainFormButton(chosen, customServers, playerServers);
 
@@ -112,18 +139,16 @@ public class PacketHandler implements BedrockPacketHandler {
 
                             switch(button) {
                                 case CONNECT:
-                                    session.sendPacketImmediately(UIForms.createDirectConnect());
-                                    player.setCurrentForm(UIForms.DIRECT_CONNECT);
+                                    player.openForm(UIForms.createDirectConnect(), true);
                                     break;
                                 case REMOVE:
-                                    session.sendPacketImmediately(UIForms.createRemoveServer(player.getServerList()));
-                                    player.setCurrentForm(UIForms.REMOVE_SERVER);
+                                    player.openForm(UIForms.createRemoveServer(player.getServerList()), true);
                                     break;
                                 case EXIT:
                                     player.disconnect("Exiting Server List", server);
                                     break;
                                 case USER_SERVER:
-                                    String address = server.getPlayer(uuid).getServerList().get(serverIndex);
+                                    String address = player.getServerList().get(serverIndex);
 
                                     if (address.split(":").length > 1) {
                                         String ip = address.split(":")[0];
@@ -132,10 +157,10 @@ public class PacketHandler implements BedrockPacketHandler {
                                         try {
                                             transfer(ip, Integer.parseInt(port));
                                         } catch (Exception e) {
-                                            session.sendPacketImmediately(UIForms.createError("Error connecting to server. Invalid address."));
+                                            player.openForm(UIForms.createError("Error connecting to server. Invalid address."));
                                         }
                                     } else {
-                                        session.sendPacketImmediately(UIForms.createError("Invalid server address"));
+                                        player.openForm(UIForms.createError("Invalid server address"));
                                     }
                                     break;
                                 case CUSTOM_SERVER:
@@ -145,25 +170,9 @@ public class PacketHandler implements BedrockPacketHandler {
                                 case FEATURED_SERVER:
                                     int featuredServer = serverIndex - playerServers.size() - customServers.length;
 
-                                    switch (featuredServer) {
-                                        case 0: // Hive
-                                            transfer("54.39.75.136", 19132);
-                                            break;
-                                        case 1: // Mineplex
-                                            transfer("108.178.12.125", 19132);
-                                            break;
-                                        case 2: // Cubecraft
-                                            transfer("play.cubecraft.net", 19132);
-                                            break;
-                                        case 3: // Lifeboat
-                                            transfer("51.222.26.28", 19132);
-                                            break;
-                                        case 4: // Mineville
-                                            transfer("168.62.164.235", 19132);
-                                            break;
-                                        case 5: // Galaxite
-                                            transfer("51.222.8.223", 19132);
-                                            break;
+                                    if (featuredServer >= 0 && featuredServer < UIForms.featuredServers.length) {
+                                        CustomServer featured = UIForms.featuredServers[featuredServer];
+                                        transfer(featured.getAddress(), featured.getPort());
                                     }
                                     break;
                             }
@@ -172,76 +181,65 @@ public class PacketHandler implements BedrockPacketHandler {
                     break;
                 case UIForms.DIRECT_CONNECT:
                     try {
-                        if(packet.getFormData().contains("null")) {
-                            session.sendPacketImmediately(UIForms.createMain(player.getServerList()));
-                            player.setCurrentForm(UIForms.MAIN);
+                        if(!response.isValid() || response.isClosed()) {
+                            player.openForm(UIForms.createMain(player), true);
                         }
-                        else {
-                            ArrayList<String> data = UIComponents.getFormData(packet.getFormData());
-                            if(data.size() > 1) {
-                                // Remove any whitespace
-                                data.set(0, data.get(0).replaceAll("\\s",""));
-                                data.set(1, data.get(1).replaceAll("\\s",""));
-
-                                if(data.get(0).length() >= 253)
-                                    session.sendPacketImmediately(UIForms.createError("Address is too large. (Must be less than 253)"));
-                                else if(data.get(1).length() >= 10)
-                                    session.sendPacketImmediately(UIForms.createError("Port is too large. (Must be less than 10)"));
-                                else if (!data.get(0).matches("^(([0-9]|[1-9][0-9]|1[0-9]{2}|2[0-4][0-9]|25[0-5])\\.){3}([0-9]|[1-9][0-9]|1[0-9]{2}|2[0-4][0-9]|25[0-5])$") && !data.get(0).matches("^((?!-)[A-Za-z0-9-]{1,63}(?<!-)\\.)+[A-Za-z]{2,64}$"))
-                                    session.sendPacketImmediately(UIForms.createError("Enter a valid address. (E.g. play.example.net, 172.16.254.1)"));
-                                else if (!data.get(1).matches("[0-9]+"))
-                                    session.sendPacketImmediately(UIForms.createError("Enter a valid port that contains only numbers"));
-                                else {
-                                    boolean addServer = Boolean.parseBoolean(data.get(2));
-                                    if (addServer) {
-                                        List<String> serverList = player.getServerList();
-                                        if (serverList.size() >= player.getServerLimit())
-                                            session.sendPacketImmediately(UIForms.createError("You have hit your serverlist limit of " + player.getServerLimit() + " servers. Remove some to add more."));
-                                        else {
-                                            serverList.add(data.get(0) + ":" + data.get(1));
-                                            player.setServerList(serverList);
-                                            transfer(data.get(0).replace(" ", ""), Integer.parseInt(data.get(1)));
-                                        }
-                                    } else {
-                                        TransferPacket tp = new TransferPacket();
-                                        tp.setAddress(data.get(0).replace(" ", ""));
-                                        tp.setPort(Integer.parseInt(data.get(1)));
-                                        session.sendPacketImmediately(tp);
+                        else if(response.size() > 1) {
+                            String address = AddressValidator.removeWhitespace(response.getString(0));
+                            String port = AddressValidator.removeWhitespace(response.getString(1));
+
+                            if(address.length() >= 253)
+                                player.openForm(UIForms.createError("Address is too large. (Must be less than 253)"));
+                            else if(port.length() >= 10)
+                                player.openForm(UIForms.createError("Port is too large. (Must be less than 10)"));
+                            else if (!AddressValidator.isValidHost(address))
+                                player.openForm(UIForms.createError("Enter a valid address. (E.g. play.example.net, 172.16.254.1)"));
+                            else if (!AddressValidator.isValidPort(port))
+                                player.openForm(UIForms.createError("Enter a valid port from 1 to 65535"));
+                            else {
+                                boolean addServer = response.getBoolean(2);
+                                if (addServer) {
+                                    List<String> serverList = player.getServerList();
+                                    if (serverList.size() >= player.getServerLimit())
+                                        player.openForm(UIForms.createError("You have hit your serverlist limit of " + player.getServerLimit() + " servers. Remove some to add more."));
+                                    else {
+                                        serverList.add(address + ":" + port);
+                                        player.setServerList(serverList);
+                                        transfer(address, Integer.parseInt(port));
                                     }
+                                } else {
+                                    transfer(address, Integer.parseInt(port));
                                 }
                             }
                         }
                     } catch(Exception e) {
-                        session.sendPacketImmediately(UIForms.createError("Please enter a valid IP/Address and port that contains only numbers."));
+                        player.openForm(UIForms.createError("Please enter a valid IP/Address and port that contains only numbers."));
                     }
                     break;
                 case UIForms.REMOVE_SERVER:
                     try {
-                        if(packet.getFormData().contains("null")) {
-                            session.sendPacketImmediately(UIForms.createMain(player.getServerList()));
-                            player.setCurrentForm(UIForms.MAIN);
+                        if(!response.isValid() || response.isClosed()) {
+                            player.openForm(UIForms.createMain(player), true);
                         }
                         else {
-                            ArrayList<String> data = UIComponents.getFormData(packet.getFormData());
-
-                            int chosen = Integer.parseInt(data.get(0));
+                            int chosen = response.getInt(0);
 
                             List<String> serverList = player.getServerList();
                             serverList.remove(chosen);
 
                             player.setServerList(serverList);
 
-                            session.sendPacketImmediately(UIForms.createMain(serverList));
+                            player.openForm(UIForms.createMain(player));
                         }
                     } catch(Exception e) {
-                        session.sendPacketImmediately(UIForms.createError("Invalid server to remove"));
+                        player.openForm(UIForms.createError("Invalid server to remove"));
                     }
                     break;
                 case UIForms.ERROR:
-                    session.sendPacketImmediately(UIForms.createMain(player.getServerList()));
+                    player.openForm(UIForms.createMain(player));
                     break;
                 case UIForms.DONATION:
-                    session.sendPacketImmediately(UIForms.createMain(player.getServerList()));
+                    player.openForm(UIForms.createMain(player));
                     break;
         }
         return false;
@@ -256,7 +254,14 @@ public class PacketHandler implements BedrockPacketHandler {
 
     @Override
     public boolean handle(SetLocalPlayerAsInitializedPacket packet) {
-        session.sendPacketImmediately(UIForms.createMain(player.getServerList()));
+        BCPlayer player;
+        synchronized (this) {
+            spawned = true;
+            player = this.player;
+        }
+        // Without a player yet, setPlayer opens the main form
+        if(player != null)
+            player.openForm(UIForms.createMain(player));
         return false;
     }
 
@@ -268,38 +273,12 @@ public class PacketHandler implements BedrockPacketHandler {
     }
 
     public void disconnect() {
+        finishHandshake();
         System.out.println(name + " disconnected");
         if(player != null)
             server.removePlayer(player);
     }
 
-    private static boolean validateChainData(JsonNode data) throws Exception {
-        ECPublicKey lastKey = null;
-        boolean validChain = false;
-        for (JsonNode node : data) {
-            JWSObject jwt = JWSObject.parse(node.asText());
-
-            if (!validChain) {
-                validChain = verifyJwt(jwt, EncryptionUtils.getMojangPublicKey());
-            }
-
-            if (lastKey != null) {
-                verifyJwt(jwt, lastKey);
-            }
-
-            JsonNode payloadNode = Server.JSON_MAPPER.readTree(jwt.getPayload().toString());
-            JsonNode ipkNode = payloadNode.get("identityPublicKey");
-            Preconditions.checkState(ipkNode != null && ipkNode.getNodeType() == JsonNodeType.STRING, "identityPublicKey node is missing in chain");
-            lastKey = EncryptionUtils.generateKey(ipkNode.asText());
-        }
-        return validChain;
-    }
-
-
-    private static boolean verifyJwt(JWSObject jwt, ECPublicKey key) throws JOSEException {
-        return jwt.verify(new DefaultJWSVerifierFactory().createJWSVerifier(jwt.getHeader(), key));
-    }
-
     @Override
     public boolean handle(DisconnectPacket packet) {
         return false;
@@ -349,44 +328,44 @@ public class PacketHandler implements BedrockPacketHandler {
 
         session.setPacketCodec(packetCodec);
 
-        JsonNode certData;
+        // Chain verification is slow, keep it off the network thread
         try {
-            certData = Server.JSON_MAPPER.readTree(packet.getChainData().toByteArray());
-        } catch (IOException e) {
-            throw new RuntimeException("Certificate JSON can not be read.");
+            LoginVerifier.submit(() -> completeLogin(packet));
+        } catch (RejectedExecutionException e) {
+            System.out.println("Too many logins waiting for verification, turning away " + session.getAddress());
+            session.disconnect("disconnectionScreen.serverFull");
         }
+        return true;
+    }
 
-        JsonNode certChainData = certData.get("chain");
-        if (certChainData.getNodeType() != JsonNodeType.ARRAY) {
-            throw new RuntimeException("Certificate data is not valid");
-        }
+    private void completeLogin(LoginPacket packet) {
+        if (session.isClosed())
+            return;
 
-        boolean validChain;
         try {
-            validChain = validateChainData(certChainData);
+            LoginVerifier.Chain chain = LoginVerifier.validateChain(packet.getChainData());
 
-            JWSObject jwt = JWSObject.parse(certChainData.get(certChainData.size() - 1).asText());
-            JsonNode payload = Server.JSON_MAPPER.readTree(jwt.getPayload().toBytes());
-
-            if (payload.get("extraData").getNodeType() != JsonNodeType.OBJECT) {
+            if (chain.last.identity == null || chain.last.displayName == null) {
                 throw new RuntimeException("AuthData was not found!");
             }
 
-            extraData = (JSONObject) jwt.getPayload().toJSONObject().get("extraData");
-
-            if (payload.get("identityPublicKey").getNodeType() != JsonNodeType.STRING) {
-                throw new RuntimeException("Identity Public Key was not found!");
+            // Offline chains, which do not start from Mojang's key, are allowed, but must not be tampered with
+            if (!chain.intact) {
+                session.disconnect("disconnectionScreen.notAuthenticated");
+                System.out.println("Login chain of " + session.getAddress() + " has a link not signed by the one before it, disconnected");
+                return;
+            }
+            if (!LoginVerifier.verifySkin(packet.getSkinData(), chain.last.identityPublicKey)) {
+                session.disconnect("disconnectionScreen.notAuthenticated");
+                System.out.println("Skin data of " + session.getAddress() + " is not signed by its login chain, disconnected");
+                return;
             }
-            ECPublicKey identityPublicKey = EncryptionUtils.generateKey(payload.get("identityPublicKey").textValue());
-
-            JWSObject clientJwt = JWSObject.parse(packet.getSkinData().toString());
-            verifyJwt(clientJwt, identityPublicKey);
-
-            System.out.println("Made it through login - " + "User: " + extraData.getAsString("displayName") + " (" + extraData.getAsString("identity") + ")");
 
+            name = chain.last.displayName;
+            uuid = chain.last.identity;
+            xuid = chain.last.xuid;
 
-            name = extraData.getAsString("displayName");
-            uuid = extraData.getAsString("identity");
+            System.out.println("Made it through login - " + "User: " + name + " (" + uuid + ")");
             
             
             //whitelist check
@@ -410,9 +389,8 @@ public class PacketHandler implements BedrockPacketHandler {
             session.sendPacket(resourcePacksInfo);
         } catch (Exception e) {
             session.disconnect("disconnectionScreen.internalError.cantConnect");
-            throw new RuntimeException("Unable to complete login", e);
+            System.out.println("Unable to complete login: " + e);
         }
-        return true;
     }
 
 
@@ -0,0 +1,60 @@
+package main.com.pyratron.pugmatt.bedrockconnect.utils;
+
+import java.util.regex.Pattern;
+
+/**
+ * Checks the server addresses players enter. The patterns are compiled once instead of on every String.matches.
+ */
+public class AddressValidator {
+
+    private static final Pattern IPV4 = Pattern.compile("^(([0-9]|[1-9][0-9]|1[0-9]{2}|2[0-4][0-9]|25[0-5])\\.){3}([0-9]|[1-9][0-9]|1[0-9]{2}|2[0-4][0-9]|25[0-5])$");
+    private static final Pattern HOSTNAME = Pattern.compile("^((?!-)[A-Za-z0-9-]{1,63}(?<!-)\\.)+[A-Za-z]{2,64}$");
+
+    private AddressValidator() {
+    }
+
+    /**
+     * @return True for an IPv4 address or a domain name, e.g. 172.16.254.1 or play.example.net
+     */
+    public static boolean isValidHost(String host) {
+        return IPV4.matcher(host).matches() || HOSTNAME.matcher(host).matches();
+    }
+
+    /**
+     * @return True if the port is a number from 1 to 65535
+     */
+    public static boolean isValidPort(String port) {
+        if (port.isEmpty() || port.length() > 5)
+            return false;
+        int value = 0;
+        for (int i = 0; i < port.length(); i++) {
+            char c = port.charAt(i);
+            if (c < '0' || c > '9')
+                return false;
+            value = value * 10 + (c - '0');
+        }
+        return value >= 1 && value <= 65535;
+    }
+
+    /**
+     * @return The text without whitespace, the same string if it has none
+     */
+    public static String removeWhitespace(String text) {
+        if (text == null)
+            return "";
+        int i = 0;
+        while (i < text.length() && !Character.isWhitespace(text.charAt(i)))
+            i++;
+        if (i == text.length())
+            return text;
+
+        StringBuilder out = new StringBuilder(text.length());
+        out.append(text, 0, i);
+        for (; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (!Character.isWhitespace(c))
+                out.append(c);
+        }
+        return out.toString();
+    }
+}
@@ -0,0 +1,60 @@
+package main.com.pyratron.pugmatt.bedrockconnect.utils;
+
+import com.nukkitx.nbt.NBTInputStream;
+import com.nukkitx.nbt.NbtList;
+import com.nukkitx.nbt.NbtMap;
+import com.nukkitx.nbt.NbtUtils;
+import main.com.pyratron.pugmatt.bedrockconnect.BedrockConnect;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * The tables the join sequence of one protocol version is built from.
+ *
+ * A table is read from tables/&lt;protocol version&gt;/ when the jar has one for that version, otherwise from the
+ * shared copy in tables/. Bundles are only loaded when a client of their version first joins; once the join
+ * sequence is encoded it is kept in that form and the bundle can be dropped. Tables nothing sends are never read.
+ */
+public class AssetBundle {
+
+    public final NbtList<NbtMap> blockPalette;
+    public final NbtMap biomes;
+    public final NbtMap entityIdentifiers;
+
+    private AssetBundle(NbtList<NbtMap> blockPalette, NbtMap biomes, NbtMap entityIdentifiers) {
+        this.blockPalette = blockPalette;
+        this.biomes = biomes;
+        this.entityIdentifiers = entityIdentifiers;
+    }
+
+    /**
+     * Reads the tables for a protocol version
+     * @throws IllegalStateException if a table is missing or can not be read
+     */
+    @SuppressWarnings("unchecked")
+    public static AssetBundle load(int protocolVersion) {
+        return new AssetBundle(
+                (NbtList<NbtMap>) readTag(protocolVersion, "runtime_block_states.dat"),
+                (NbtMap) readTag(protocolVersion, "biome_definitions.dat"),
+                (NbtMap) readTag(protocolVersion, "entity_identifiers.dat"));
+    }
+
+    private static Object readTag(int protocolVersion, String name) {
+        InputStream stream = open("tables/" + protocolVersion + "/" + name);
+        if (stream == null)
+            stream = open("tables/" + name);
+        if (stream == null)
+            throw new IllegalStateException("Unable to locate " + name);
+
+        try (NBTInputStream nbtInputStream = NbtUtils.createNetworkReader(stream)) {
+            return nbtInputStream.readTag();
+        } catch (IOException e) {
+            throw new IllegalStateException("Unable to read " + name + " for protocol " + protocolVersion, e);
+        }
+    }
+
+    private static InputStream open(String path) {
+        return BedrockConnect.class.getClassLoader().getResourceAsStream(path);
+    }
+}
@@ -0,0 +1,87 @@
+package main.com.pyratron.pugmatt.bedrockconnect.utils;
+
+import com.nukkitx.network.VarInts;
+import com.nukkitx.protocol.bedrock.BedrockPacket;
+import com.nukkitx.protocol.bedrock.BedrockPacketCodec;
+import com.nukkitx.protocol.bedrock.BedrockSession;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.Unpooled;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.zip.Deflater;
+
+/**
+ * Builds the compressed body of a wrapped (0xfe) packet once so it can be sent to many sessions.
+ *
+ * The layout matches the wrapper used by every supported client (RakNet protocol 10):
+ * each packet is prefixed with its length and header as VarInts, and the whole batch is raw deflated.
+ */
+public class EncodedBatch {
+
+    private EncodedBatch() {
+    }
+
+    /**
+     * Encodes and compresses the packets with the given codec.
+     * @param codec Codec of the sessions the batch will be sent to
+     * @param packets Packets to encode, in order
+     * @param session Session passed on to the packet serializers
+     * @return A read-only buffer holding one reference for the caller
+     */
+    public static ByteBuf encode(BedrockPacketCodec codec, Collection<BedrockPacket> packets, BedrockSession session) {
+        ByteBuf uncompressed = ByteBufAllocator.DEFAULT.heapBuffer();
+        ByteBuf packetBuffer = ByteBufAllocator.DEFAULT.heapBuffer();
+        try {
+            for (BedrockPacket packet : packets) {
+                packetBuffer.clear();
+                VarInts.writeUnsignedInt(packetBuffer, codec.getId(packet) & 0x3ff);
+                codec.tryEncode(packetBuffer, packet, session);
+
+                VarInts.writeUnsignedInt(uncompressed, packetBuffer.readableBytes());
+                uncompressed.writeBytes(packetBuffer);
+            }
+
+            byte[] input = new byte[uncompressed.readableBytes()];
+            uncompressed.readBytes(input);
+            return Unpooled.wrappedBuffer(deflate(input)).asReadOnly();
+        } finally {
+            packetBuffer.release();
+            uncompressed.release();
+        }
+    }
+
+    /**
+     * Sends a batch built by {@link #encode}. The shared buffer is left untouched and keeps its reference.
+     */
+    public static void send(BedrockSession session, ByteBuf batch) {
+        ByteBuf view = batch.retainedDuplicate();
+        try {
+            session.sendWrapped(view, true);
+        } finally {
+            view.release();
+        }
+    }
+
+    private static byte[] deflate(byte[] input) {
+        // Built once per codec, so the extra time for the best ratio is worth it
+        Deflater deflater = new Deflater(Deflater.BEST_COMPRESSION, true);
+        try {
+            deflater.setInput(input);
+            deflater.finish();
+
+            byte[] output = new byte[Math.max(64, input.length / 4)];
+            int length = 0;
+            while (!deflater.finished()) {
+                if (length == output.length) {
+                    output = Arrays.copyOf(output, output.length * 2);
+                }
+                length += deflater.deflate(output, length, output.length - length);
+            }
+            return Arrays.copyOf(output, length);
+        } finally {
+            deflater.end();
+        }
+    }
+}
@@ -0,0 +1,59 @@
+package main.com.pyratron.pugmatt.bedrockconnect.utils;
+
+import io.netty.util.HashedWheelTimer;
+import io.netty.util.Timeout;
+import io.netty.util.concurrent.DefaultThreadFactory;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * One timer for the whole server: idle kicks, cooldowns and periodic tasks.
+ *
+ * Timeouts are kept in a hashed timing wheel, so scheduling and cancelling are O(1) however many
+ * players are online. Tasks run on the timer thread and must not block; hand blocking work to another thread.
+ */
+public class Scheduler {
+
+    private static final long TICK_MILLIS = 100;
+    private static final int WHEEL_SIZE = 512;
+
+    private static final HashedWheelTimer TIMER = new HashedWheelTimer(new DefaultThreadFactory("BedrockConnect Timer"),
+            TICK_MILLIS, TimeUnit.MILLISECONDS, WHEEL_SIZE);
+
+    private Scheduler() {
+    }
+
+    /**
+     * Starts the timer thread. It is not a daemon, so it also keeps the server running
+     * (the network threads are daemons).
+     */
+    public static void start() {
+        TIMER.start();
+    }
+
+    /**
+     * @return Monotonic timestamp in nanoseconds, only meaningful compared to other timestamps
+     */
+    public static long now() {
+        return System.nanoTime();
+    }
+
+    public static Timeout schedule(Runnable task, long delay, TimeUnit unit) {
+        return TIMER.newTimeout(timeout -> task.run(), delay, unit);
+    }
+
+    /**
+     * Runs a task now and then every period until the server stops. A failing run is logged and does not stop the task.
+     */
+    public static void repeat(Runnable task, long period, TimeUnit unit) {
+        TIMER.newTimeout(timeout -> {
+            try {
+                task.run();
+            } catch (Exception e) {
+                e.printStackTrace();
+            } finally {
+                TIMER.newTimeout(timeout.task(), period, unit);
+            }
+        }, 0, unit);
+    }
+}